@@ -1,6 +1,7 @@
 plugins {
     id("java-library")
     id("maven-publish")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.figuramc"
@@ -19,6 +20,19 @@ dependencies {
 
     implementation("org.ow2.asm:asm:9.6")
     implementation("org.ow2.asm:asm-util:9.6")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+jmh {
+    // Run with ./gradlew jmh
+    jmhVersion = "1.37"
 }
 
 java {
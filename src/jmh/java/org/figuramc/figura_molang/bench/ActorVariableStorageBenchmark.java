@@ -0,0 +1,57 @@
+package org.figuramc.figura_molang.bench;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.DefaultQueries;
+import org.figuramc.figura_molang.MolangInstance;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing actor variables in the instance's float[] against a direct FloatBuffer
+ * (see MolangInstance.useActorVariableBuffer()). Scalar accesses become buffer get/put calls, which the JIT should
+ * inline to about the cost of an array access. Vector copies become bulk buffer copies instead of System.arraycopy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActorVariableStorageBenchmark {
+
+    private static final int STEPS = 1024;
+
+    @Param({"array", "buffer"})
+    public String storage;
+
+    private CompiledMolang<Object> scalars;
+    private CompiledMolang<Object> vectors;
+
+    @Setup
+    public void setup() throws Throwable {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+        if (storage.equals("buffer")) instance.useActorVariableBuffer(MolangInstance.allocateActorVariableBuffer(64));
+        scalars = instance.compile("{v.time = v.time + c.dt; v.speed = v.speed * 0.5 + v.time; return v.speed;}", List.of("dt"), Map.of());
+        vectors = instance.compile("{v.3$pos = v.3$pos + v.3$vel * c.dt; v.3$last = v.3$pos; return v.3$last;}", List.of("dt"), Map.of());
+        instance.compile("v.3$vel = [1, 2, 3]", List.of(), Map.of()).evaluate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public void scalars(Blackhole blackhole) {
+        for (int i = 0; i < STEPS; i++)
+            blackhole.consume(scalars.evaluate(0.05f).get(0));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public void vectors(Blackhole blackhole) {
+        for (int i = 0; i < STEPS; i++)
+            blackhole.consume(vectors.evaluate(0.05f).get(0));
+    }
+
+}
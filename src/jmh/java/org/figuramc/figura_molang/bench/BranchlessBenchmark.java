@@ -0,0 +1,75 @@
+package org.figuramc.figura_molang.bench;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.DefaultQueries;
+import org.figuramc.figura_molang.MolangInstance;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares branching and branchless code generation for comparisons and simple selects.
+ * With random inputs, branches mispredict about half the time and branchless code should win.
+ * With predictable (sorted) inputs, branches are nearly free, and the branching code should be about even or ahead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BranchlessBenchmark {
+
+    private static final int INPUTS = 4096;
+
+    @Param({"true", "false"})
+    public boolean branchless;
+
+    @Param({"random", "predictable"})
+    public String inputs;
+
+    private final float[] xs = new float[INPUTS];
+    private final float[] ys = new float[INPUTS];
+
+    private CompiledMolang<Object> select;
+    private CompiledMolang<Object> compare;
+
+    @Setup
+    public void setup() throws Throwable {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+        instance.branchless = branchless;
+        select = instance.compile("c.x < c.y ? c.x : c.y", List.of("x", "y"), Map.of());
+        compare = instance.compile("(c.x < c.y) * 2 + (c.x > 0.5)", List.of("x", "y"), Map.of());
+
+        Random random = new Random(1234);
+        for (int i = 0; i < INPUTS; i++) {
+            if (inputs.equals("random")) {
+                xs[i] = random.nextFloat();
+                ys[i] = random.nextFloat();
+            } else {
+                // Outcome flips once, halfway through
+                xs[i] = (float) i / INPUTS;
+                ys[i] = 0.5f;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void select(Blackhole blackhole) {
+        for (int i = 0; i < INPUTS; i++)
+            blackhole.consume(select.evaluate(xs[i], ys[i]).get(0));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void compare(Blackhole blackhole) {
+        for (int i = 0; i < INPUTS; i++)
+            blackhole.consume(compare.evaluate(xs[i], ys[i]).get(0));
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.figuramc.figura_molang.bench;
+
+import org.figuramc.figura_molang.DefaultQueries;
+import org.figuramc.figura_molang.MolangInstance;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles a pack's worth of expressions into a fresh instance, one by one with compile(), and with compileAll() on
+ * pools of different sizes. Bytecode generation is most of the time, so compileAll() should scale with the threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkCompileBenchmark {
+
+    private static final int EXPRESSIONS = 256;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private List<MolangInstance.CompileRequest> requests;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        requests = new ArrayList<>();
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            String source = "{v.x" + (i % 16) + " = v.x" + (i % 16) + " + c.dt * " + i + "; "
+                    + "t.a = math.sin(c.time * " + i + ") * math.cos(c.time + v.x" + (i % 16) + "); "
+                    + "v.3$rot" + (i % 8) + " = [t.a, math.lerp(t.a, 1, c.dt), math.clamp(t.a * " + i + ", -1, 1)] * 2; "
+                    + "return v.3$rot" + (i % 8) + " + [t.a, t.a, t.a];}";
+            requests.add(new MolangInstance.CompileRequest(source, List.of("time", "dt")));
+        }
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void sequential(Blackhole blackhole) throws Throwable {
+        if (threads != 1) return; // Doesn't depend on the pool
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+        for (MolangInstance.CompileRequest request : requests)
+            blackhole.consume(instance.compile(request.source(), request.contextVariables(), request.constants()));
+    }
+
+    @Benchmark
+    public void bulk(Blackhole blackhole) throws Throwable {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+        blackhole.consume(instance.compileAll(requests, pool));
+    }
+
+}
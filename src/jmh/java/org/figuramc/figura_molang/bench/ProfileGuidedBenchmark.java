@@ -0,0 +1,66 @@
+package org.figuramc.figura_molang.bench;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.DefaultQueries;
+import org.figuramc.figura_molang.MolangInstance;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A branch-heavy animation controller, whose rare states (falling, swimming, hurt) have long expressions behind them
+ * which almost never run. Compiled as usual, and with profileGuided after warming up and recompiling, which moves the
+ * rare states out of the way. Also run with branchless, where the profile keeps the biased branches from being flattened.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileGuidedBenchmark {
+
+    private static final String RARE = "math.sin(c.time * 720) * math.cos(c.time * 360) * 15 + math.pow(math.clamp(c.speed, 0, 1), 3) * 40 + math.lerp(-10, 10, math.abs(math.sin(c.time * 90)))";
+    private static final String[] SOURCES = {
+            "c.falling > 0.5 ? " + RARE + " : math.sin(c.time * 180) * c.speed * 30",
+            "c.swimming > 0.5 ? " + RARE + " : (c.speed > 0.1 ? math.cos(c.time * 180) * 20 : 0)",
+            "(c.hurt > 0.5 && (" + RARE + ") > 5) || c.speed > 0.5",
+            "{t.base = math.sin(c.time * 90) * 5; c.hurt > 0.5 ? {t.base = t.base + " + RARE + ";} : {t.base = t.base * c.speed;}; return [t.base, t.base * 0.5, 0];}",
+    };
+    private static final List<String> CONTEXT = List.of("time", "speed", "falling", "swimming", "hurt");
+
+    @Param({"false", "true"})
+    public boolean profileGuided;
+
+    @Param({"false", "true"})
+    public boolean branchless;
+
+    private final List<CompiledMolang<Object>> expressions = new ArrayList<>();
+    private float time;
+
+    @Setup
+    public void setup() throws Throwable {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+        instance.profileGuided = profileGuided;
+        instance.branchless = branchless;
+        for (String source : SOURCES) expressions.add(instance.compile(source, CONTEXT, Map.of()));
+        if (!profileGuided) return;
+        // Walk around for a while, then tier up
+        for (int i = 0; i < instance.profileWarmupCalls; i++)
+            for (CompiledMolang<Object> expression : expressions)
+                expression.evaluate(i * 0.05f, 0.3f, 0, 0, 0);
+        instance.recompileWarmExpressions();
+    }
+
+    @Benchmark
+    public void tick(Blackhole blackhole) {
+        time += 0.05f;
+        for (CompiledMolang<Object> expression : expressions)
+            blackhole.consume(expression.evaluate(time, 0.3f, 0, 0, 0).get(0));
+    }
+
+}
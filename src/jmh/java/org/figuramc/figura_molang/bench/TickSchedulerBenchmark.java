@@ -0,0 +1,76 @@
+package org.figuramc.figura_molang.bench;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.DefaultQueries;
+import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.TickScheduler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick of animation-like expressions for many actors, each with an instance of its own: evaluated in a plain loop on
+ * one thread, and through a TickScheduler on pools of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickSchedulerBenchmark {
+
+    private static final int ACTORS = 256;
+    private static final String[] SOURCES = {
+            "{v.t = v.t + c.dt; return math.sin(v.t * 90) * 30;}",
+            "[math.cos(v.t * 45), math.sin(v.t * 45), 0] * math.lerp(0.5, 1, math.clamp(v.t, 0, 1))",
+            "{t.s = math.sin(v.t * 180 + c.dt); return [t.s, t.s * 2, math.pow(2, t.s)];}",
+    };
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private final List<List<CompiledMolang<Object>>> expressions = new ArrayList<>();
+    private ForkJoinPool pool;
+    private TickScheduler scheduler;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws Throwable {
+        this.blackhole = blackhole;
+        pool = new ForkJoinPool(threads);
+        scheduler = new TickScheduler(pool);
+        for (int i = 0; i < ACTORS; i++) {
+            MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+            List<CompiledMolang<Object>> compiled = new ArrayList<>();
+            for (String source : SOURCES) compiled.add(instance.compile(source, List.of("dt"), Map.of()));
+            expressions.add(compiled);
+            TickScheduler.Entry<Object> entry = scheduler.register(instance, null, compiled, (expression, result) -> this.blackhole.consume(result.get(0)));
+            entry.args[0] = 0.05f;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void loop(Blackhole blackhole) {
+        if (threads != 1) return; // Doesn't depend on the pool
+        for (List<CompiledMolang<Object>> compiled : expressions)
+            for (CompiledMolang<Object> expression : compiled)
+                blackhole.consume(expression.evaluate(0.05f).get(0));
+    }
+
+    @Benchmark
+    public void scheduler() {
+        scheduler.tick();
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.ast.vars.ActorVariable;
+
+import java.util.Objects;
+
+/**
+ * Actor variables for many actors sharing one MolangInstance, so each entity doesn't need an instance of its own.
+ * Every actor has the same variables at the same offsets. They're stored one actor after another, stride floats apart,
+ * in a single float[] which becomes the instance's actorVariables. Code compiled while a bank is attached reads the
+ * current actor's variables starting at MolangInstance.actorVariableBase, so switching actors with select() is just a
+ * couple of field writes, and evaluating for actors in index order walks memory sequentially.
+ * See MolangInstance.createActorVariableBank().
+ */
+public final class ActorVariableBank<OOMErr extends Throwable> {
+
+    private final MolangInstance<?, OOMErr> instance;
+    // Floats per actor, at least as many as there are variables
+    private int stride;
+    private int actors;
+    private int current;
+
+    ActorVariableBank(MolangInstance<?, OOMErr> instance, int actors, int slots) throws OOMErr {
+        if (actors < 1) throw new IllegalArgumentException("A bank must have at least 1 actor");
+        this.instance = instance;
+        this.stride = Math.max(1, slots);
+        this.actors = actors;
+        // Existing values become the first actor's
+        relayout(stride, actors);
+    }
+
+    public int stride() { return stride; }
+    public int actors() { return actors; }
+    public int current() { return current; }
+
+    // Make compiled code read and write the variables of this actor
+    public void select(int actor) {
+        Objects.checkIndex(actor, actors);
+        current = actor;
+        instance.actorVariableBase = actor * stride;
+        // The variables' values all changed, as far as incremental evaluation is concerned
+        instance.actorVariablesVersion++;
+    }
+
+    // Change the number of actors. New actors' variables start at 0. If the current actor is removed, the last one is selected.
+    public void resize(int actors) throws OOMErr {
+        if (actors < 1) throw new IllegalArgumentException("A bank must have at least 1 actor");
+        relayout(stride, actors);
+    }
+
+    // Read or write a variable of any actor, not just the current one
+    public float get(int actor, ActorVariable variable, int element) {
+        return instance.actorVariables[index(actor, variable, element)];
+    }
+    public void set(int actor, ActorVariable variable, int element, float value) {
+        int index = index(actor, variable, element);
+        instance.actorVariables[index] = value;
+        instance.actorVariablesVersion++;
+        instance.variableSync.markRange(index, 1);
+    }
+
+    private int index(int actor, ActorVariable variable, int element) {
+        Objects.checkIndex(actor, actors);
+        Objects.checkIndex(element, variable.size);
+        return actor * stride + variable.location + element;
+    }
+
+    // Called by the instance when a new variable is created, so the stride fits this many slots
+    void ensureStride(int slots) throws OOMErr {
+        if (slots > stride) relayout(Math.max(slots, stride * 2), actors);
+    }
+
+    // Called by the instance after moving variables down, so the stride only fits this many slots
+    void shrinkStride(int slots) throws OOMErr {
+        if (Math.max(1, slots) < stride) relayout(Math.max(1, slots), actors);
+    }
+
+    // Copy every actor's variables to a new array with this layout
+    private void relayout(int newStride, int newActors) throws OOMErr {
+        float[] old = instance.actorVariables;
+        float[] res = new float[newStride * newActors];
+        int copiedActors = Math.min(this.actors, newActors);
+        for (int i = 0; i < copiedActors; i++) {
+            int start = i * stride;
+            if (start >= old.length) break; // Before the first layout, old only holds the one actor
+            System.arraycopy(old, start, res, i * newStride, Math.min(Math.min(stride, newStride), old.length - start));
+        }
+        instance.setActorVariables(res);
+        this.stride = newStride;
+        this.actors = newActors;
+        instance.metrics.bankedActors = newActors;
+        // Every slot moved
+        instance.variableSync.markAllDirty();
+        select(Math.min(current, newActors - 1));
+    }
+
+}
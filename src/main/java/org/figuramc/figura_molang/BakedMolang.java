@@ -0,0 +1,180 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Dependencies;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * An expression which only depends on one context variable (like c.anim_time), sampled into a lookup table over a range.
+ * Inside the range, evaluating interpolates between samples instead of running the expression, which is much cheaper
+ * when it calls things like sin or pow. Outside the range, the compiled expression runs as usual.
+ * See MolangInstance.compile(String, List, Map, Range).
+ */
+public final class BakedMolang<Actor> extends CompiledMolang<Actor> {
+
+    public enum Interpolation { LINEAR, CUBIC }
+
+    // The input to bake over, and how closely the table must match the real results.
+    // variable: Name of the context variable which is the input.
+    // min, max: Inputs in this range use the table.
+    // maxError: Interpolated results differ from the real ones by at most about this much. Checked at points between
+    // samples, so features narrower than the sample spacing may be missed.
+    public record Range(String variable, float min, float max, Interpolation interpolation, float maxError) {
+        public Range {
+            if (!(min < max)) throw new IllegalArgumentException("Bake range must have min < max");
+            if (!(maxError > 0)) throw new IllegalArgumentException("Bake error must be positive");
+        }
+    }
+
+    // Sample counts tried, doubling from the first until the error is small enough
+    public static final int MIN_SEGMENTS = 8;
+    public static final int MAX_SEGMENTS = 4096;
+    // Exprs cheaper than this aren't worth baking, since the table lookup costs about as much.
+    // This is about one call into double-precision Math, see FloatFunction.estimateCost().
+    public static final int MIN_COST = 20;
+    // Where the error is checked inside each segment
+    private static final float[] CHECK_POINTS = { 0.25f, 0.5f, 0.75f };
+
+    // Evaluated outside the range
+    public final CompiledMolang<Actor> exact;
+    public final Range range;
+    public final int inputIndex;
+    // Number of intervals between samples; the table has segments + 1 samples, each of returnCount floats
+    public final int segments;
+    final float[] table;
+    private final float invStep;
+    final float[] output;
+
+    private BakedMolang(CompiledMolang<Actor> exact, Range range, int inputIndex, int segments, float[] table) {
+        super(exact.instance, exact.argCount, exact.returnCount);
+        this.exact = exact;
+        this.range = range;
+        this.inputIndex = inputIndex;
+        this.segments = segments;
+        this.table = table;
+        this.invStep = segments / (range.max - range.min);
+        this.output = new float[returnCount];
+        this.codeSize = exact.codeSize;
+    }
+
+    // Approximate memory used by one of these, besides the table and output arrays
+    public static final int SIZE_ESTIMATE = 64;
+
+    // Bake the compiled expr over the range, or return null if it can't be: it reads something besides the input
+    // (or doesn't read it at all), it's too cheap to be worth it, its results aren't finite, or no table up to
+    // MAX_SEGMENTS meets the error bound.
+    static <Actor> @Nullable BakedMolang<Actor> of(CompiledMolang<Actor> exact, MolangExpr expr, Range range, List<String> contextVariables) {
+        int inputIndex = contextVariables.indexOf(range.variable);
+        Dependencies dependencies = exact.dependencies;
+        if (inputIndex == -1 || !dependencies.trackable || dependencies.contextVariables != 1 << inputIndex || dependencies.actorVariableSlots.length != 0)
+            return null;
+        if (exact instanceof PrebuiltMolang || expr.estimateCost() < MIN_COST) return null;
+
+        for (int segments = MIN_SEGMENTS; segments <= MAX_SEGMENTS; segments *= 2) {
+            float[] table = sample(exact, inputIndex, range, segments);
+            if (table == null) return null;
+            BakedMolang<Actor> baked = new BakedMolang<>(exact, range, inputIndex, segments, table);
+            if (baked.withinError()) return baked;
+        }
+        return null;
+    }
+
+    // Evaluate at segments + 1 evenly spaced points across the range, or null if any result isn't finite
+    private static float[] sample(CompiledMolang<?> exact, int inputIndex, Range range, int segments) {
+        int returnCount = exact.returnCount;
+        float[] table = new float[(segments + 1) * returnCount];
+        for (int i = 0; i <= segments; i++) {
+            float x = i == segments ? range.max : range.min + (range.max - range.min) * i / segments;
+            CompiledMolang.FloatArraySlice result = evaluateAt(exact, inputIndex, x);
+            for (int j = 0; j < returnCount; j++) {
+                float value = result.get(j);
+                if (!Float.isFinite(value)) return null;
+                table[i * returnCount + j] = value;
+            }
+        }
+        return table;
+    }
+
+    // Compare the interpolated results to the real ones between samples
+    private boolean withinError() {
+        for (int i = 0; i < segments; i++) {
+            for (float t : CHECK_POINTS) {
+                float x = range.min + (i + t) / invStep;
+                float[] interpolated = lookup(x);
+                CompiledMolang.FloatArraySlice real = evaluateAt(exact, inputIndex, x);
+                for (int j = 0; j < returnCount; j++)
+                    if (!(Math.abs(interpolated[j] - real.get(j)) <= range.maxError)) return false;
+            }
+        }
+        return true;
+    }
+
+    // Run the exact expr with the input set, and all other args 0 (they aren't read)
+    private static CompiledMolang.FloatArraySlice evaluateAt(CompiledMolang<?> exact, int inputIndex, float x) {
+        float[] args = new float[8];
+        args[inputIndex] = x;
+        return switch (exact.argCount) {
+            case 1 -> exact.evaluate(args[0]);
+            case 2 -> exact.evaluate(args[0], args[1]);
+            case 3 -> exact.evaluate(args[0], args[1], args[2]);
+            case 4 -> exact.evaluate(args[0], args[1], args[2], args[3]);
+            case 5 -> exact.evaluate(args[0], args[1], args[2], args[3], args[4]);
+            case 6 -> exact.evaluate(args[0], args[1], args[2], args[3], args[4], args[5]);
+            case 7 -> exact.evaluate(args[0], args[1], args[2], args[3], args[4], args[5], args[6]);
+            default -> exact.evaluate(args[0], args[1], args[2], args[3], args[4], args[5], args[6], args[7]);
+        };
+    }
+
+    // Interpolate the table at x, which must be inside the range
+    private float[] lookup(float x) {
+        float t = (x - range.min) * invStep;
+        int i = Math.min((int) t, segments - 1);
+        float frac = t - i;
+        int n = returnCount;
+        if (range.interpolation == Interpolation.LINEAR) {
+            for (int j = 0; j < n; j++) {
+                float p1 = table[i * n + j], p2 = table[(i + 1) * n + j];
+                output[j] = p1 + (p2 - p1) * frac;
+            }
+        } else {
+            // Catmull-Rom, extrapolating linearly past the edges
+            for (int j = 0; j < n; j++) {
+                float p1 = table[i * n + j], p2 = table[(i + 1) * n + j];
+                float p0 = i > 0 ? table[(i - 1) * n + j] : 2 * p1 - p2;
+                float p3 = i + 2 <= segments ? table[(i + 2) * n + j] : 2 * p2 - p1;
+                float a = -p0 + 3 * p1 - 3 * p2 + p3;
+                float b = 2 * p0 - 5 * p1 + 4 * p2 - p3;
+                float c = p2 - p0;
+                output[j] = p1 + 0.5f * frac * (c + frac * (b + frac * a));
+            }
+        }
+        return output;
+    }
+
+    // Rough cost of a lookup inside the range, like MolangExpr.estimateCost()
+    public int lookupCost() {
+        return 8 + returnCount * (range.interpolation == Interpolation.LINEAR ? 5 : 15);
+    }
+
+    private boolean inRange(float x) {
+        return x >= range.min && x <= range.max; // False for NaN
+    }
+
+    // The input is one of the args, picked by inputIndex
+    private float input(float a, float b, float c, float d, float e, float f, float g, float h) {
+        return switch (inputIndex) { case 0 -> a; case 1 -> b; case 2 -> c; case 3 -> d; case 4 -> e; case 5 -> f; case 6 -> g; default -> h; };
+    }
+
+    // Baked exprs read at least one arg, so there's no 0-arg version
+    @Override protected float[] evaluateImpl(float a) { float x = input(a, 0, 0, 0, 0, 0, 0, 0); return inRange(x) ? lookup(x) : exact.evaluateImpl(a); }
+    @Override protected float[] evaluateImpl(float a, float b) { float x = input(a, b, 0, 0, 0, 0, 0, 0); return inRange(x) ? lookup(x) : exact.evaluateImpl(a, b); }
+    @Override protected float[] evaluateImpl(float a, float b, float c) { float x = input(a, b, c, 0, 0, 0, 0, 0); return inRange(x) ? lookup(x) : exact.evaluateImpl(a, b, c); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d) { float x = input(a, b, c, d, 0, 0, 0, 0); return inRange(x) ? lookup(x) : exact.evaluateImpl(a, b, c, d); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e) { float x = input(a, b, c, d, e, 0, 0, 0); return inRange(x) ? lookup(x) : exact.evaluateImpl(a, b, c, d, e); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f) { float x = input(a, b, c, d, e, f, 0, 0); return inRange(x) ? lookup(x) : exact.evaluateImpl(a, b, c, d, e, f); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g) { float x = input(a, b, c, d, e, f, g, 0); return inRange(x) ? lookup(x) : exact.evaluateImpl(a, b, c, d, e, f, g); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g, float h) { float x = input(a, b, c, d, e, f, g, h); return inRange(x) ? lookup(x) : exact.evaluateImpl(a, b, c, d, e, f, g, h); }
+
+}
@@ -1,7 +1,13 @@
 package org.figuramc.figura_molang;
 
 
+import org.figuramc.figura_molang.compile.Dependencies;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.FloatBuffer;
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
 
 public abstract class CompiledMolang<Actor> {
 
@@ -9,12 +15,63 @@ public abstract class CompiledMolang<Actor> {
     public final int argCount;
     public final int returnCount;
 
+    // Set once after compiling
+    public CodeSize codeSize;
+    public Dependencies dependencies;
+    // Rough cost of one evaluation, in units of about one simple instruction (see MolangExpr.estimateCost()).
+    // Hosts can use this to budget, throttle, or reject expressions before running them.
+    public int estimatedCost;
+    // Index into the instance's Instrumentation counters, if it was compiled with instrumentation
+    public int instrumentationId = -1;
+
+    // State for evaluateIncremental(). Only allocated if the expression is trackable.
+    float[] cachedResult, lastArgs, lastActorVariables;
+    private FloatArraySlice cachedSlice;
+    private boolean hasCachedResult;
+    private int seenActorVariablesVersion;
+
+    // Sizes of the generated bytecode, in bytes. Useful to spot expressions which are too large.
+    // totalSize: All generated methods together.
+    // mainMethodSize: The evaluateImpl method, which HotSpot won't JIT if it's over 8000 bytes.
+    // helperMethods, largestHelperSize: Methods split off from evaluateImpl, because it was too large.
+    public record CodeSize(int totalSize, int mainMethodSize, int helperMethods, int largestHelperSize) {}
+
+    // When MolangInstance.compactActorVariables() moved variables this reads or writes, it recompiled the source for the
+    // new layout. Calls on this are then forwarded to the recompiled version, which current() returns.
+    @Nullable CompiledMolang<Actor> relocated;
+    // Names of the actor variables the source refers to, and its record in the instance's live expressions
+    Set<String> actorVariableNames = Set.of();
+    MolangInstance.@Nullable LiveExpression<Actor> liveExpression;
+    // While warming up with MolangInstance.profileGuided, what this has done so far, which its generated code records.
+    // Null once it's specialized, or if it isn't profiled.
+    public @Nullable ExecutionProfile profile;
+    // The profile this version was specialized to, if it was
+    @Nullable ExecutionProfile speculatedOn;
+    // Counted by specialized code: calls, and times what it speculated on didn't hold (see Speculation)
+    public int speculativeCalls, speculationMisses;
+
+    // The version of this expression in use: itself, unless its actor variables were moved or it was specialized
+    public CompiledMolang<Actor> current() {
+        return relocated != null ? relocated.current() : this;
+    }
+
+    // Values of the literals, when the instance lifts them out of the code (see MolangInstance.liftLiterals).
+    // Classes can be shared between expressions of the same shape, which then only differ in these.
+    public final float[] constants;
+
     public CompiledMolang(MolangInstance<Actor, ?> instance, int argCount, int returnCount) {
+        this(instance, argCount, returnCount, NO_CONSTANTS);
+    }
+
+    public CompiledMolang(MolangInstance<Actor, ?> instance, int argCount, int returnCount, float[] constants) {
         this.instance = instance;
         this.argCount = argCount;
         this.returnCount = returnCount;
+        this.constants = constants;
     }
 
+    private static final float[] NO_CONSTANTS = new float[0];
+
     // Returns a (potentially large) array.
     // Result values are stored in the first <returnCount> entries of the array.
     protected float[] evaluateImpl() { throw new UnsupportedOperationException("Wrong argument count to CompiledMolang.evaluateImpl()"); }
@@ -31,6 +88,7 @@ public abstract class CompiledMolang<Actor> {
 
     // Evaluate the expr and return a slice letting you access result values safely
     public final FloatArraySlice evaluate() {
+        if (relocated != null) return relocated.evaluate();
         if (instance.reEntrantFlag < 2) {
             try {
                 instance.reEntrantFlag++;
@@ -44,16 +102,110 @@ public abstract class CompiledMolang<Actor> {
     }
 
     // Compressed copies of the above function, except with different arg counts :P
-    public final FloatArraySlice evaluate(float a) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a), 0, returnCount); } }
-    public final FloatArraySlice evaluate(float a, float b) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b), 0, returnCount); } }
-    public final FloatArraySlice evaluate(float a, float b, float c) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c), 0, returnCount); } }
-    public final FloatArraySlice evaluate(float a, float b, float c, float d) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d), 0, returnCount); } }
-    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e), 0, returnCount); } }
-    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f), 0, returnCount); } }
-    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f, float g) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g), 0, returnCount); } }
-    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f, float g, float h) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g, h), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g, h), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a) { if (relocated != null) return relocated.evaluate(a); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a, float b) { if (relocated != null) return relocated.evaluate(a, b); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a, float b, float c) { if (relocated != null) return relocated.evaluate(a, b, c); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a, float b, float c, float d) { if (relocated != null) return relocated.evaluate(a, b, c, d); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e) { if (relocated != null) return relocated.evaluate(a, b, c, d, e); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f) { if (relocated != null) return relocated.evaluate(a, b, c, d, e, f); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f, float g) { if (relocated != null) return relocated.evaluate(a, b, c, d, e, f, g); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g), 0, returnCount); } }
+    public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f, float g, float h) { if (relocated != null) return relocated.evaluate(a, b, c, d, e, f, g, h); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g, h), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g, h), 0, returnCount); } }
+
+    // Like evaluate(), but write the results to dest, starting at offset. Doesn't change dest's position.
+    // If the instance compiled this with bufferOutputs, the generated code stores results straight into dest; otherwise
+    // they're copied over. dest must not be the instance's actorVariableBuffer.
+    public final void evaluateInto(FloatBuffer dest, int offset) { if (relocated != null) { relocated.evaluateInto(dest, offset); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a) { if (relocated != null) { relocated.evaluateInto(dest, offset, a); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a, float b) { if (relocated != null) { relocated.evaluateInto(dest, offset, a, b); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, b, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, b, dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a, float b, float c) { if (relocated != null) { relocated.evaluateInto(dest, offset, a, b, c); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, b, c, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, b, c, dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a, float b, float c, float d) { if (relocated != null) { relocated.evaluateInto(dest, offset, a, b, c, d); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, b, c, d, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, b, c, d, dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a, float b, float c, float d, float e) { if (relocated != null) { relocated.evaluateInto(dest, offset, a, b, c, d, e); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, b, c, d, e, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, b, c, d, e, dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a, float b, float c, float d, float e, float f) { if (relocated != null) { relocated.evaluateInto(dest, offset, a, b, c, d, e, f); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, b, c, d, e, f, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, b, c, d, e, f, dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a, float b, float c, float d, float e, float f, float g) { if (relocated != null) { relocated.evaluateInto(dest, offset, a, b, c, d, e, f, g); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, b, c, d, e, f, g, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, b, c, d, e, f, g, dest, offset); } }
+    public final void evaluateInto(FloatBuffer dest, int offset, float a, float b, float c, float d, float e, float f, float g, float h) { if (relocated != null) { relocated.evaluateInto(dest, offset, a, b, c, d, e, f, g, h); return; } checkOutput(dest, offset); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; evaluateIntoImpl(a, b, c, d, e, f, g, h, dest, offset); } finally { instance.reEntrantFlag--; } } else { evaluateIntoImpl(a, b, c, d, e, f, g, h, dest, offset); } }
+
+    // Write the results to dest at offset. By default, evaluate and copy; generated classes may override these to store directly.
+    protected void evaluateIntoImpl(FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, float b, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a, b), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, float b, float c, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a, b, c), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, float b, float c, float d, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a, b, c, d), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, float b, float c, float d, float e, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a, b, c, d, e), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, float b, float c, float d, float e, float f, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a, b, c, d, e, f), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, float b, float c, float d, float e, float f, float g, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a, b, c, d, e, f, g), 0, returnCount); }
+    protected void evaluateIntoImpl(float a, float b, float c, float d, float e, float f, float g, float h, FloatBuffer dest, int offset) { dest.put(offset, evaluateImpl(a, b, c, d, e, f, g, h), 0, returnCount); }
+
+    // Check the whole result fits, so nothing is written if it doesn't
+    private void checkOutput(FloatBuffer dest, int offset) {
+        Objects.checkFromIndexSize(offset, returnCount, dest.limit());
+    }
+
+    // Called by metered evaluateIntoImpl code when it runs out of fuel
+    protected static void clearOutput(FloatBuffer dest, int offset, int count) {
+        for (int i = 0; i < count; i++) dest.put(offset + i, 0f);
+    }
 
 
+    // Like evaluate(), but if the expression is trackable and nothing it reads has changed since the last call, return
+    // the previous result without running it. Context args are compared if the expression reads them, and so are the actor
+    // variables it reads; with MolangInstance.countActorVariableWrites, only once actorVariablesVersion moved.
+    // Expressions that aren't trackable (see Dependencies) always run.
+    // The result stays valid until the next call of this method on the same expression.
+    public final FloatArraySlice evaluateIncremental() { if (relocated != null) return relocated.evaluateIncremental(); return unchanged(0, 0, 0, 0, 0, 0, 0, 0) ? cachedSlice : remember(evaluate()); }
+    public final FloatArraySlice evaluateIncremental(float a) { if (relocated != null) return relocated.evaluateIncremental(a); return unchanged(a, 0, 0, 0, 0, 0, 0, 0) ? cachedSlice : remember(evaluate(a)); }
+    public final FloatArraySlice evaluateIncremental(float a, float b) { if (relocated != null) return relocated.evaluateIncremental(a, b); return unchanged(a, b, 0, 0, 0, 0, 0, 0) ? cachedSlice : remember(evaluate(a, b)); }
+    public final FloatArraySlice evaluateIncremental(float a, float b, float c) { if (relocated != null) return relocated.evaluateIncremental(a, b, c); return unchanged(a, b, c, 0, 0, 0, 0, 0) ? cachedSlice : remember(evaluate(a, b, c)); }
+    public final FloatArraySlice evaluateIncremental(float a, float b, float c, float d) { if (relocated != null) return relocated.evaluateIncremental(a, b, c, d); return unchanged(a, b, c, d, 0, 0, 0, 0) ? cachedSlice : remember(evaluate(a, b, c, d)); }
+    public final FloatArraySlice evaluateIncremental(float a, float b, float c, float d, float e) { if (relocated != null) return relocated.evaluateIncremental(a, b, c, d, e); return unchanged(a, b, c, d, e, 0, 0, 0) ? cachedSlice : remember(evaluate(a, b, c, d, e)); }
+    public final FloatArraySlice evaluateIncremental(float a, float b, float c, float d, float e, float f) { if (relocated != null) return relocated.evaluateIncremental(a, b, c, d, e, f); return unchanged(a, b, c, d, e, f, 0, 0) ? cachedSlice : remember(evaluate(a, b, c, d, e, f)); }
+    public final FloatArraySlice evaluateIncremental(float a, float b, float c, float d, float e, float f, float g) { if (relocated != null) return relocated.evaluateIncremental(a, b, c, d, e, f, g); return unchanged(a, b, c, d, e, f, g, 0) ? cachedSlice : remember(evaluate(a, b, c, d, e, f, g)); }
+    public final FloatArraySlice evaluateIncremental(float a, float b, float c, float d, float e, float f, float g, float h) { if (relocated != null) return relocated.evaluateIncremental(a, b, c, d, e, f, g, h); return unchanged(a, b, c, d, e, f, g, h) ? cachedSlice : remember(evaluate(a, b, c, d, e, f, g, h)); }
+
+    // Allocate the state for evaluateIncremental(), called by MolangInstance when the expression is trackable
+    void initIncremental() {
+        cachedResult = new float[returnCount];
+        lastArgs = new float[8];
+        lastActorVariables = new float[dependencies.actorVariableSlots.length];
+        cachedSlice = new FloatArraySlice(cachedResult, 0, returnCount);
+    }
+
+    // Check whether the cached result is still valid. If not, record the current inputs, which the next result will be for.
+    private boolean unchanged(float a, float b, float c, float d, float e, float f, float g, float h) {
+        if (cachedResult == null) return false; // Not trackable
+        int mask = dependencies.contextVariables;
+        if (hasCachedResult && sameArg(mask, 0, a) && sameArg(mask, 1, b) && sameArg(mask, 2, c) && sameArg(mask, 3, d)
+                && sameArg(mask, 4, e) && sameArg(mask, 5, f) && sameArg(mask, 6, g) && sameArg(mask, 7, h) && sameActorVariables())
+            return true;
+        hasCachedResult = false;
+        lastArgs[0] = a; lastArgs[1] = b; lastArgs[2] = c; lastArgs[3] = d; lastArgs[4] = e; lastArgs[5] = f; lastArgs[6] = g; lastArgs[7] = h;
+        int[] slots = dependencies.actorVariableSlots;
+        for (int i = 0; i < slots.length; i++) lastActorVariables[i] = instance.readActorVariable(slots[i]);
+        seenActorVariablesVersion = instance.actorVariablesVersion;
+        return false;
+    }
+
+    // Compare bits, so NaN equals itself
+    private boolean sameArg(int mask, int index, float value) {
+        return (mask & (1 << index)) == 0 || Float.floatToRawIntBits(value) == Float.floatToRawIntBits(lastArgs[index]);
+    }
+
+    private boolean sameActorVariables() {
+        int version = instance.actorVariablesVersion;
+        if (instance.countActorVariableWrites && version == seenActorVariablesVersion) return true; // Nothing was written
+        int[] slots = dependencies.actorVariableSlots;
+        for (int i = 0; i < slots.length; i++)
+            if (Float.floatToRawIntBits(instance.readActorVariable(slots[i])) != Float.floatToRawIntBits(lastActorVariables[i])) return false;
+        seenActorVariablesVersion = version; // Only variables we don't read changed
+        return true;
+    }
+
+    private FloatArraySlice remember(FloatArraySlice result) {
+        if (cachedResult == null) return result;
+        System.arraycopy(result.array, result.start, cachedResult, 0, returnCount);
+        hasCachedResult = true;
+        return cachedSlice;
+    }
+
     // Don't hold this for long - it keeps a reference to the (possibly large) backing array
     public static class FloatArraySlice {
 
@@ -42,12 +42,13 @@ public class DefaultQueries {
                 throw new MolangCompileException(MolangCompileException.VECTOR_ARGS_SAME_SIZE, "query.all", distinctSizes.get(0), distinctSizes.get(1), source, funcNameStart, funcNameEnd);
             Compound res = parser.pushScope();
             TempVariable temp = parser.declareTempVar("$temp", args.getFirst().returnCount(), -1, -1);
-            res.exprs.add(new TempVariableAssign(temp, args.getFirst()));
-            MolangExpr andChain = new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.getLast())); // temp == d
+            res.exprs.add(parser.node(new TempVariableAssign(temp, args.getFirst()), funcNameStart));
+            MolangExpr andChain = parser.node(new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.getLast())), funcNameStart); // temp == d
             for (int i = args.size() - 2; i > 0; i--) {
-                andChain = new LogicalAnd(new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.get(i))), andChain);
+                MolangExpr eq = parser.node(new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.get(i))), funcNameStart);
+                andChain = parser.node(new LogicalAnd(eq, andChain), funcNameStart);
             }
-            res.exprs.add(new Return(andChain));
+            res.exprs.add(parser.node(new Return(andChain), funcNameStart));
             parser.popScope();
             return res;
         });
@@ -60,12 +61,13 @@ public class DefaultQueries {
                 throw new MolangCompileException(MolangCompileException.VECTOR_ARGS_SAME_SIZE, "query.any", distinctSizes.get(0), distinctSizes.get(1), source, funcNameStart, funcNameEnd);
             Compound res = parser.pushScope();
             TempVariable temp = parser.declareTempVar("$temp", args.getFirst().returnCount(), -1, -1);
-            res.exprs.add(new TempVariableAssign(temp, args.getFirst()));
-            MolangExpr orChain = new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.getLast())); // temp == d
+            res.exprs.add(parser.node(new TempVariableAssign(temp, args.getFirst()), funcNameStart));
+            MolangExpr orChain = parser.node(new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.getLast())), funcNameStart); // temp == d
             for (int i = args.size() - 2; i > 0; i--) {
-                orChain = new LogicalOr(new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.get(i))), orChain);
+                MolangExpr eq = parser.node(new FunctionCall(ComparisonOperator.EQ_OP, List.of(temp, args.get(i))), funcNameStart);
+                orChain = parser.node(new LogicalOr(eq, orChain), funcNameStart);
             }
-            res.exprs.add(new Return(orChain));
+            res.exprs.add(parser.node(new Return(orChain), funcNameStart));
             parser.popScope();
             return res;
         });
@@ -78,13 +80,10 @@ public class DefaultQueries {
                 throw new MolangCompileException(MolangCompileException.VECTOR_ARGS_SAME_SIZE, "query.in_range", distinctSizes.get(0), distinctSizes.get(1), source, funcNameStart, funcNameEnd);
             Compound res = parser.pushScope();
             TempVariable temp = parser.declareTempVar("$temp", args.getFirst().returnCount(), -1, -1);
-            res.exprs.add(new TempVariableAssign(temp, args.getFirst()));
-            res.exprs.add(new Return(
-                    new LogicalAnd(
-                            new FunctionCall(ComparisonOperator.GE_OP, List.of(temp, args.get(1))),
-                            new FunctionCall(ComparisonOperator.LE_OP, List.of(temp, args.get(2)))
-                    )
-            ));
+            res.exprs.add(parser.node(new TempVariableAssign(temp, args.getFirst()), funcNameStart));
+            MolangExpr atLeast = parser.node(new FunctionCall(ComparisonOperator.GE_OP, List.of(temp, args.get(1))), funcNameStart);
+            MolangExpr atMost = parser.node(new FunctionCall(ComparisonOperator.LE_OP, List.of(temp, args.get(2))), funcNameStart);
+            res.exprs.add(parser.node(new Return(parser.node(new LogicalAnd(atLeast, atMost), funcNameStart)), funcNameStart));
             parser.popScope();
             return res;
         });
@@ -0,0 +1,77 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.memory_tracker.AllocationTracker;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * What an expression compiled with MolangInstance.profileGuided did while warming up: how often it ran, how often each
+ * branch went each way, and which class of actor each actor query saw. Generated code calls the methods here, passing
+ * site numbers assigned by Speculation. Once it has run enough, MolangInstance.recompileWarmExpressions() compiles the
+ * expression again, specialized to this.
+ */
+public final class ExecutionProfile {
+
+    // Evaluations so far
+    public int calls;
+    // Per branch site: at 2 * site, times the first way was taken (a ternary's true arm, or the right side of && and ||);
+    // at 2 * site + 1, times the site was reached at all
+    final int[] branches;
+    // Per actor query site: the only actor class it has seen, MEGAMORPHIC if it has seen more, or null if none yet
+    final @Nullable Class<?>[] actorClasses;
+
+    static final Class<?> MEGAMORPHIC = Megamorphic.class;
+    private static final class Megamorphic {}
+
+    public ExecutionProfile(int branchSites, int querySites) {
+        this.branches = new int[branchSites * 2];
+        this.actorClasses = new Class<?>[querySites];
+    }
+
+    // Approximate memory used, not counting the object itself
+    int sizeEstimate() {
+        return (branches.length * AllocationTracker.INT_SIZE) + (actorClasses.length * AllocationTracker.REFERENCE_SIZE) + AllocationTracker.OBJECT_SIZE * 2;
+    }
+
+    public int branchSites() {
+        return branches.length / 2;
+    }
+
+    public int querySites() {
+        return actorClasses.length;
+    }
+
+    // Called by generated code on entry
+    public void enter() {
+        if (calls < Integer.MAX_VALUE) calls++;
+    }
+
+    // Called by generated code when reaching a branch site (taken = false), and again on taking its first way (taken = true)
+    public void branch(int site, boolean taken) {
+        int index = 2 * site + (taken ? 0 : 1);
+        if (branches[index] < Integer.MAX_VALUE) branches[index]++;
+    }
+
+    // Called by generated code before an actor query, with the instance's actor
+    public void actor(int site, @Nullable Object actor) {
+        if (actor == null) return; // The query returns 0 whatever we generate
+        Class<?> seen = actor.getClass();
+        Class<?> recorded = actorClasses[site];
+        if (recorded == seen || recorded == MEGAMORPHIC) return;
+        actorClasses[site] = recorded == null ? seen : MEGAMORPHIC;
+    }
+
+    // Times the site was reached, and times it took its first way
+    public int reached(int site) {
+        return branches[2 * site + 1];
+    }
+    public int taken(int site) {
+        return branches[2 * site];
+    }
+
+    // The one actor class the query site saw, or null if it saw none or several
+    public @Nullable Class<?> actorClass(int site) {
+        Class<?> recorded = actorClasses[site];
+        return recorded == MEGAMORPHIC ? null : recorded;
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.jfr.EvaluateEvent;
+import org.figuramc.memory_tracker.AllocationTracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Call counts and sampled timings of the expressions an instance compiled with instrumentation (see MolangInstance.instrument).
+ * Generated code calls countCall() on entry and recordTime() on exit, passing its CompiledMolang.instrumentationId.
+ * Counters live in primitive arrays indexed by that id, so counting doesn't allocate.
+ * Timed calls are also reported as EvaluateEvents, if the flight recorder is running with them enabled.
+ */
+public class Instrumentation {
+
+    private final MolangInstance<?, ?> instance;
+
+    // Time every nth call of each expression. 0 to only count calls.
+    public int timingInterval = 0;
+
+    private final List<String> sources = new ArrayList<>();
+    private long[] calls = new long[0];
+    private long[] timedCalls = new long[0];
+    private long[] timedNanos = new long[0];
+    private int[] returnCounts = new int[0];
+
+    Instrumentation(MolangInstance<?, ?> instance) {
+        this.instance = instance;
+    }
+
+    // Returned by countCall() when the call isn't timed
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    // Approximate memory used per registered expression, besides its source
+    static final int SIZE_PER_EXPRESSION = 7 * AllocationTracker.INT_SIZE + AllocationTracker.REFERENCE_SIZE; // 3 longs, an int, and the source
+
+    // Assign an id to a newly compiled expression
+    int register(String source, int returnCount) {
+        int id = sources.size();
+        sources.add(source);
+        if (id >= calls.length) {
+            int newLength = Math.max(16, calls.length * 2);
+            calls = Arrays.copyOf(calls, newLength);
+            timedCalls = Arrays.copyOf(timedCalls, newLength);
+            timedNanos = Arrays.copyOf(timedNanos, newLength);
+            returnCounts = Arrays.copyOf(returnCounts, newLength);
+        }
+        returnCounts[id] = returnCount;
+        return id;
+    }
+
+    // Called by generated code on entry. Returns the start time if this call is timed, or NOT_TIMED.
+    public long countCall(int id) {
+        long count = ++calls[id];
+        return timingInterval > 0 && count % timingInterval == 0 ? System.nanoTime() : NOT_TIMED;
+    }
+
+    // Called by generated code on exit, with what countCall() returned
+    public void recordTime(int id, long start) {
+        if (start == NOT_TIMED) return;
+        long nanos = System.nanoTime() - start;
+        timedNanos[id] += nanos;
+        timedCalls[id]++;
+        EvaluateEvent event = new EvaluateEvent();
+        if (event.shouldCommit()) {
+            event.expressionId = id;
+            event.returnCount = returnCounts[id];
+            event.reEntrancyDepth = instance.reEntrantFlag;
+            event.evaluationTime = nanos;
+            event.commit();
+        }
+    }
+
+    // Clear all counters, keeping the registered expressions
+    public void reset() {
+        Arrays.fill(calls, 0);
+        Arrays.fill(timedCalls, 0);
+        Arrays.fill(timedNanos, 0);
+    }
+
+    // Counters of one expression.
+    // estimatedNanos: Total time, extrapolated from the timed calls. 0 if none were timed.
+    public record ExpressionStats(int id, String source, long calls, long timedCalls, long timedNanos) {
+        public long estimatedNanos() {
+            return timedCalls == 0 ? 0 : (long) ((double) timedNanos / timedCalls * calls);
+        }
+    }
+
+    // Current counters of every registered expression, in id order
+    public List<ExpressionStats> snapshot() {
+        List<ExpressionStats> res = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++)
+            res.add(new ExpressionStats(i, sources.get(i), calls[i], timedCalls[i], timedNanos[i]));
+        return res;
+    }
+
+    // The limit expressions with the most calls, most first
+    public List<ExpressionStats> topByCalls(int limit) {
+        return snapshot().stream().sorted(Comparator.comparingLong(ExpressionStats::calls).reversed()).limit(limit).toList();
+    }
+
+    // The limit expressions with the most estimated time, most first
+    public List<ExpressionStats> topByTime(int limit) {
+        return snapshot().stream().sorted(Comparator.comparingLong(ExpressionStats::estimatedNanos).reversed()).limit(limit).toList();
+    }
+
+}
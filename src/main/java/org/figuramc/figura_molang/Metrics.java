@@ -0,0 +1,63 @@
+package org.figuramc.figura_molang;
+
+/**
+ * Counters of what a MolangInstance has compiled and how much memory it holds onto, for exporting to monitoring.
+ * These are plain fields updated by the instance as it works, so keeping them costs about nothing. Other threads can
+ * read them without locking, they just might see slightly stale values; use snapshot() to get them all at once.
+ */
+public class Metrics {
+
+    // Calls to compile(), including ones that threw
+    public int compiles;
+    public int failedCompiles;
+    // Total time spent in compile()
+    public long compileNanos;
+    // Expressions which didn't need a class of their own (see PrebuiltMolang)
+    public int prebuiltExpressions;
+    // Expressions sampled into lookup tables (see BakedMolang)
+    public int bakedExpressions;
+    // Classes generated and loaded, and the total size of their class files
+    public int loadedClasses;
+    public long loadedClassBytes;
+    // Compiles which reused an existing class instead of loading a new one (see MolangInstance.liftLiterals)
+    public int sharedClasses;
+    // Expressions compiled again, specialized to their profile (see MolangInstance.profileGuided)
+    public int speculativeRecompiles;
+    // Specialized expressions compiled again for profiling, because what they speculated on stopped holding
+    public int deoptimizations;
+
+    // Slots of MolangInstance.actorVariables in use by variables (per actor), and its length (for all actors)
+    public int actorVariableSlots;
+    public int actorVariableCapacity;
+    // Actors in the instance's ActorVariableBank, or 0 if it doesn't have one
+    public int bankedActors;
+    // Length of the shared temp array
+    public int tempStackSize;
+    // Temp arrays allocated because an evaluation was re-entrant, so it couldn't use the shared one
+    public long reEntrantTempArrays;
+
+    // Package-private, only MolangInstance updates these
+    Metrics() {}
+
+    // The counters at one point in time
+    public record Snapshot(int compiles, int failedCompiles, long compileNanos, int prebuiltExpressions, int bakedExpressions,
+                           int loadedClasses, long loadedClassBytes, int sharedClasses, int speculativeRecompiles, int deoptimizations,
+                           int actorVariableSlots, int actorVariableCapacity, int bankedActors, int tempStackSize, long reEntrantTempArrays) {
+        // Fraction of compiles which generated code and found an existing class for it, or 0 if there weren't any
+        public double sharedClassRate() {
+            int generated = loadedClasses + sharedClasses;
+            return generated == 0 ? 0 : (double) sharedClasses / generated;
+        }
+        // Fraction of actorVariables which is allocated but unused
+        public double unusedActorVariableRate() {
+            return actorVariableCapacity == 0 ? 0 : 1 - (double) actorVariableSlots * Math.max(1, bankedActors) / actorVariableCapacity;
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(compiles, failedCompiles, compileNanos, prebuiltExpressions, bakedExpressions,
+                loadedClasses, loadedClassBytes, sharedClasses, speculativeRecompiles, deoptimizations,
+                actorVariableSlots, actorVariableCapacity, bankedActors, tempStackSize, reEntrantTempArrays);
+    }
+
+}
@@ -2,10 +2,18 @@ package org.figuramc.figura_molang;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.ast.vars.ActorVariable;
+import org.figuramc.figura_molang.compile.Dependencies;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.MolangParser;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.CodeSizeCounter;
+import org.figuramc.figura_molang.compile.jvm.LiteralTable;
+import org.figuramc.figura_molang.compile.jvm.MethodSplitter;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
+import org.figuramc.figura_molang.compile.jvm.SourceMap;
+import org.figuramc.figura_molang.compile.jvm.Speculation;
+import org.figuramc.figura_molang.jfr.CompileEvent;
 import org.figuramc.memory_tracker.AllocationTracker;
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.*;
@@ -13,10 +21,27 @@ import org.objectweb.asm.util.CheckClassAdapter;
 import org.objectweb.asm.util.TraceClassVisitor;
 
 import java.io.PrintWriter;
+import java.lang.reflect.Modifier;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 /**
  * Each MolangInstance has its own "v.name" namespace, as well as its own set of supported queries/math functions/etc.
@@ -30,10 +55,105 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
 
     // Shared across expressions parsed using this instance, so keep a name -> variable location map.
     // Variables are bound at parse time, so there's no string lookup at runtime.
+    // With countActorVariableWrites, writing to this yourself without incrementing actorVariablesVersion leaves
+    // results of CompiledMolang.evaluateIncremental() stale.
     public float[] actorVariables = new float[0];
+    // With countActorVariableWrites, incremented whenever compiled code assigns an actor variable. Also incremented when
+    // the variables are swapped out wholesale, such as selecting another actor of an ActorVariableBank.
+    public int actorVariablesVersion;
+    // Whether to compile assignments to actor variables so they increment actorVariablesVersion. Then evaluateIncremental()
+    // only compares the variables an expression reads after something was written, instead of on every call, at the cost
+    // of a field increment on every assignment. Set it before compiling anything, and leave it.
+    public boolean countActorVariableWrites = false;
+    // Where the current actor's variables start in actorVariables. Always 0, unless there's an ActorVariableBank.
+    public int actorVariableBase;
+    private @Nullable ActorVariableBank<OOMErr> actorVariableBank;
+    // If non-null, actor variables are stored here instead of in actorVariables. Public for generated code to read,
+    // but set it with useActorVariableBuffer().
+    public @Nullable FloatBuffer actorVariableBuffer;
     private float[] tempStack = new float[0]; // Float[] for temporary stack space
     private int nextActorVariable = 0;
     private final Map<String, ActorVariable> actorVariablesByName = new HashMap<>();
+    // Number of live expressions referring to each variable. Variables with none can be reclaimed by compactActorVariables().
+    private final Map<String, Integer> actorVariableReferences = new HashMap<>();
+    // Expressions compiled by this instance which haven't been released or garbage collected
+    private final Set<LiveExpression<Actor>> liveExpressions = new HashSet<>();
+    private final ReferenceQueue<CompiledMolang<Actor>> collectedExpressions = new ReferenceQueue<>();
+
+    // Compile options. Changing these only affects expressions compiled afterward.
+    // Whether to generate branchless code for comparisons and simple ternaries, when heuristics say it's worthwhile.
+    // Branchless code has steady cost, while branches are cheaper when predictable, but expensive when mispredicted.
+    // Off by default, since the conditions in typical animations are predictable; see BranchlessBenchmark before enabling.
+    public boolean branchless = false;
+    // Whether to use the float-only approximations in FastMath for sin, cos, asin, acos, atan, atan2, exp, ln, and pow.
+    // These skip the conversions to double and radians, at the cost of some accuracy; see FastMath for error bounds.
+    public boolean fastMath = false;
+    // Expressions whose code would be larger than this many bytes get split into helper methods.
+    // HotSpot won't JIT methods over 8000 bytes (HugeMethodLimit), so keep this below that.
+    public int splitMethodSize = 6000;
+    // Whether to read literals from a per-expression constants array, instead of embedding them in the code.
+    // Expressions which only differ in their literals then share one class, saving class loading and JIT work,
+    // at the cost of an array read for each literal.
+    public boolean liftLiterals = false;
+
+    // Compile budgets, for sources that can't be trusted. Exceeding one makes compile() throw a MolangCompileException,
+    // which bounds how long compiling can take, and how much memory the result can use.
+    // Nodes in the parsed tree, including those created by queries
+    public int maxNodes = 50_000;
+    // Height of the parsed tree. Code generation recurses this deep, and long chains like a+b+c+... count too.
+    // Vector operations take the most stack, overflowing a 1 MB thread stack at about 640 levels, so the default leaves
+    // room to spare. Raise it only along with the stack size of the compiling threads.
+    public int maxDepth = 256;
+    // Nesting of parens, blocks, ternaries, and unary operators. Each level is many frames deep in the parser.
+    public int maxNesting = 128;
+    // Elements in one vector, including vector variables
+    public int maxVectorSize = 1024;
+    // Slots of the temp float[] used by one expression, for results, vector temp variables, and scratch space
+    public int maxArraySlots = 65536;
+    // Size of the generated class file. Code size is checked before generating it too, using an estimate.
+    public int maxClassBytes = 1 << 20;
+
+    // Whether to compile expressions with fuel metering, so untrusted ones can't stall the caller with expensive queries
+    // or re-entrant chains. Metered code charges fuel for query calls, vector loops, and re-entrant evaluations; when it
+    // runs out, evaluation stops and the result is all 0. Expressions compiled without it don't check fuel at all.
+    public boolean fuelMetering = false;
+    // Fuel for each outermost evaluation of a metered expression, in units of about one simple instruction
+    public int fuelBudget = 100_000;
+    // Fuel left in the current evaluation. Negative after an evaluation ran out.
+    public int fuel;
+
+    // Whether to compile expressions with call counters, and timing if instrumentation.timingInterval is set.
+    // Expressions compiled without it, and trivial ones which skip class generation (see PrebuiltMolang), count nothing.
+    public boolean instrument = false;
+    public final Instrumentation instrumentation = new Instrumentation(this);
+
+    // Whether to emit a SourceFile attribute and line numbers into generated classes, so stack traces and profilers
+    // can point at the sub-expression responsible. The "line" is the offset into the source plus 1; see getSource().
+    public boolean debugInfo = true;
+    // Whether to check generated classes with ASM's CheckClassAdapter and print their bytecode to stdout, for debugging
+    // the compiler itself. Slow, and the dumps of classes generated by compileAll() on several threads interleave.
+    public boolean traceBytecode = false;
+
+    // Whether to compile assignments to actor variables so they mark the slots dirty in variableSync,
+    // for syncing only the variables which changed
+    public boolean trackDirtyVariables = false;
+    public final VariableSync variableSync = new VariableSync(this);
+
+    // Whether to also generate code which writes results straight into a FloatBuffer, for CompiledMolang.evaluateInto().
+    // This about doubles the size of generated classes. Without it, evaluateInto() copies the result over.
+    public boolean bufferOutputs = false;
+
+    // Whether to compile expressions in two tiers. The first records which way its branches go and which classes of actor
+    // its queries see (see ExecutionProfile). Once it has run profileWarmupCalls times, recompileWarmExpressions() compiles
+    // it again with the cold sides of biased branches moved out of the way, and direct calls to the one actor class seen.
+    // If what it speculated on stops holding, in more than 1 in Speculation.COLD_RATIO calls, it's profiled again.
+    // Baked and trivial expressions aren't profiled. On its own this gains little, since the JIT lays out branches by its
+    // own profile; it pays off with branchless, by keeping biased branches as branches (see ProfileGuidedBenchmark).
+    public boolean profileGuided = false;
+    public int profileWarmupCalls = 10_000;
+
+    // Counters of compiles and memory use, cheap enough to always keep
+    public final Metrics metrics = new Metrics();
 
     // Functions available when compiling
     private final Map<String, ? extends Query<? super Actor, OOMErr>> queries;
@@ -82,14 +202,14 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
 
         ActorVariable existing = actorVariablesByName.get(variableName);
         if (existing != null) return existing;
+        if (size > getMaxActorVariableSlots() - nextActorVariable)
+            throw new IllegalStateException("No room for actor variable " + variableName);
         ActorVariable res = new ActorVariable(variableName, size, nextActorVariable);
         actorVariablesByName.put(variableName, res);
         nextActorVariable += size;
-        if (nextActorVariable >= actorVariables.length) {
-            // Track array grow
-            if (allocState != null) allocState.changeSize((nextActorVariable * 2 - actorVariables.length) * AllocationTracker.FLOAT_SIZE);
-            actorVariables = Arrays.copyOf(actorVariables, nextActorVariable * 2);
-        }
+        metrics.actorVariableSlots = nextActorVariable;
+        if (actorVariableBank != null) actorVariableBank.ensureStride(nextActorVariable);
+        else if (actorVariableBuffer == null && nextActorVariable >= actorVariables.length) setActorVariables(Arrays.copyOf(actorVariables, nextActorVariable * 2));
 
         if (allocationTracker != null) {
             allocState.changeSize(AllocationTracker.REFERENCE_SIZE * 4); // Estimate for change in HashMap internal size?
@@ -100,23 +220,309 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
         return res;
     }
 
+    // Number of live expressions which refer to the variable, in reads or assignments
+    public int getActorVariableReferences(String name) {
+        pollCollectedExpressions();
+        return actorVariableReferences.getOrDefault(name, 0);
+    }
+
+    // Stop counting the expression's references to actor variables, when it won't be evaluated anymore, so
+    // compactActorVariables() can reclaim variables only it used. After that, evaluating it would use other variables' slots.
+    // Expressions which are garbage collected are released automatically, but that can take a while.
+    public void release(CompiledMolang<Actor> compiled) {
+        LiveExpression<Actor> live = compiled.liveExpression;
+        if (live != null && liveExpressions.contains(live)) {
+            live.clear();
+            forget(live);
+        }
+    }
+
+    // Free the slots of actor variables which no live expression refers to, other than those named in keep, and move
+    // the remaining variables together, values included. Live expressions which refer to moved variables are recompiled;
+    // the CompiledMolang objects already handed out forward their calls to the new versions (see CompiledMolang.current()).
+    // ActorVariable objects from before are stale afterwards, so look them up again by name. Slots are renumbered, so
+    // every slot is marked dirty in variableSync, and peers should apply a snapshot.
+    // Returns the number of slots freed per actor. If recompiling an expression fails, that's thrown, and nothing changes.
+    // Must not be called while an expression is running.
+    public int compactActorVariables(Collection<String> keep) throws OOMErr, MolangCompileException {
+        if (reEntrantFlag != 0) throw new IllegalStateException("Can't compact actor variables while evaluating");
+        pollCollectedExpressions();
+
+        // Assign new locations in the current order, so every variable moves down and can be copied in place
+        List<ActorVariable> variables = new ArrayList<>(actorVariablesByName.values());
+        variables.sort(Comparator.comparingInt(variable -> variable.location));
+        Map<String, ActorVariable> oldVariables = new HashMap<>(actorVariablesByName);
+        List<ActorVariable> movedFrom = new ArrayList<>();
+        Set<String> moved = new HashSet<>();
+        int oldSlots = nextActorVariable;
+        int next = 0;
+        for (ActorVariable variable : variables) {
+            if (!actorVariableReferences.containsKey(variable.name) && !keep.contains(variable.name)) {
+                actorVariablesByName.remove(variable.name);
+                continue;
+            }
+            if (variable.location != next) {
+                ActorVariable res = new ActorVariable(variable.name, variable.size, next);
+                actorVariablesByName.put(variable.name, res);
+                movedFrom.add(variable);
+                moved.add(variable.name);
+                if (allocationTracker != null) allocationTracker.track(res, ActorVariable.SIZE_ESTIMATE);
+            }
+            next += variable.size;
+        }
+        if (next == oldSlots) {
+            actorVariablesByName.putAll(oldVariables);
+            return 0;
+        }
+
+        // Recompile the expressions whose code has the old locations in it, against the new layout, before changing
+        // anything else. If one fails, the instance is left as it was.
+        nextActorVariable = next;
+        List<LiveExpression<Actor>> recompiledLive = new ArrayList<>();
+        List<CompiledMolang<Actor>> recompiled = new ArrayList<>();
+        try {
+            for (LiveExpression<Actor> live : List.copyOf(liveExpressions)) {
+                CompiledMolang<Actor> original = live.get();
+                if (original == null || Collections.disjoint(live.actorVariables, moved)) continue;
+                // Specialized versions stay specialized, but profiled ones start warming up again
+                recompiled.add(compileImpl(live.source, live.contextVariables, live.constants, live.bake, new CompileEvent(), original.current().speculatedOn));
+                recompiledLive.add(live);
+            }
+        } catch (Throwable ex) {
+            actorVariablesByName.clear();
+            actorVariablesByName.putAll(oldVariables);
+            nextActorVariable = oldSlots;
+            throw ex;
+        }
+
+        // Move the values, ascending, so each copies into slots already vacated
+        for (ActorVariable variable : movedFrom)
+            moveActorVariable(variable.location, actorVariablesByName.get(variable.name).location, variable.size);
+        clearActorVariables(next, oldSlots);
+        metrics.actorVariableSlots = next;
+        // Shrink the storage, with the same headroom getOrCreateActorVariable() leaves
+        if (actorVariableBank != null) actorVariableBank.shrinkStride(next);
+        else if (actorVariableBuffer == null && actorVariables.length > next * 2) setActorVariables(Arrays.copyOf(actorVariables, next * 2));
+        actorVariablesVersion++;
+        variableSync.clearDirty();
+        variableSync.markAllDirty();
+
+        for (int i = 0; i < recompiled.size(); i++) {
+            LiveExpression<Actor> live = recompiledLive.get(i);
+            CompiledMolang<Actor> original = live.get();
+            CompiledMolang<Actor> res = recompiled.get(i);
+            res.liveExpression = live;
+            if (original == null) continue;
+            // Earlier versions forward here too, through the chain, but the original skips it
+            original.current().relocated = res;
+            original.relocated = res;
+        }
+        return oldSlots - next;
+    }
+
+    // Recompile the expressions compiled with profileGuided which have run at least profileWarmupCalls times, specialized
+    // to what they did. Specialized ones are checked every profileWarmupCalls calls too, and compiled for profiling again
+    // if their speculations missed too often. Like after compactActorVariables(), the CompiledMolang objects already handed
+    // out forward their calls to the new versions. Call this now and then, say once per tick, but not while an expression
+    // is running. Returns the number of expressions recompiled.
+    public int recompileWarmExpressions() throws OOMErr, MolangCompileException {
+        if (reEntrantFlag != 0) throw new IllegalStateException("Can't recompile expressions while evaluating");
+        pollCollectedExpressions();
+        int recompiled = 0;
+        for (LiveExpression<Actor> live : List.copyOf(liveExpressions)) {
+            CompiledMolang<Actor> original = live.get();
+            if (original == null) continue;
+            CompiledMolang<Actor> current = original.current();
+            ExecutionProfile profile = current.profile;
+            CompiledMolang<Actor> res;
+            if (profile != null && profile.calls >= profileWarmupCalls) {
+                res = compileImpl(live.source, live.contextVariables, live.constants, live.bake, new CompileEvent(), profile);
+                metrics.speculativeRecompiles++;
+            } else if (current.speculatedOn != null && Integer.toUnsignedLong(current.speculativeCalls) >= profileWarmupCalls) {
+                // Counts wrap around if this isn't called for a long time, but they're only compared roughly
+                long calls = Integer.toUnsignedLong(current.speculativeCalls), misses = Integer.toUnsignedLong(current.speculationMisses);
+                current.speculativeCalls = 0;
+                current.speculationMisses = 0;
+                if (misses * Speculation.COLD_RATIO <= calls) continue;
+                res = compileImpl(live.source, live.contextVariables, live.constants, live.bake, new CompileEvent(), null);
+                metrics.deoptimizations++;
+            } else continue;
+            res.liveExpression = live;
+            current.relocated = res;
+            original.relocated = res;
+            recompiled++;
+        }
+        return recompiled;
+    }
+
+    // Copy a variable's values to a lower location, for every actor
+    private void moveActorVariable(int from, int to, int size) {
+        int actors = actorVariableBank != null ? actorVariableBank.actors() : 1;
+        int stride = actorVariableBank != null ? actorVariableBank.stride() : 0;
+        for (int actor = 0; actor < actors; actor++) {
+            int base = actor * stride;
+            if (actorVariableBuffer != null) {
+                // Ascending, so overlapping ranges copy correctly
+                for (int i = 0; i < size; i++) actorVariableBuffer.put(base + to + i, actorVariableBuffer.get(base + from + i));
+            } else {
+                System.arraycopy(actorVariables, base + from, actorVariables, base + to, size);
+            }
+        }
+    }
+
+    // Zero the slots from start to end, for every actor
+    private void clearActorVariables(int start, int end) {
+        int actors = actorVariableBank != null ? actorVariableBank.actors() : 1;
+        int stride = actorVariableBank != null ? actorVariableBank.stride() : 0;
+        for (int actor = 0; actor < actors; actor++) {
+            int base = actor * stride;
+            if (actorVariableBuffer != null) {
+                for (int i = start; i < end; i++) actorVariableBuffer.put(base + i, 0f);
+            } else {
+                Arrays.fill(actorVariables, base + start, base + end, 0f);
+            }
+        }
+    }
+
+    // An expression which counts as referring to its actor variables until it's released or garbage collected.
+    // Keeps what's needed to compile it again.
+    static final class LiveExpression<Actor> extends WeakReference<CompiledMolang<Actor>> {
+        final String source;
+        final List<String> contextVariables;
+        final Map<String, float[]> constants;
+        final @Nullable BakedMolang.Range bake;
+        final Set<String> actorVariables;
+
+        LiveExpression(CompiledMolang<Actor> compiled, ReferenceQueue<CompiledMolang<Actor>> queue, String source, List<String> contextVariables, Map<String, float[]> constants, @Nullable BakedMolang.Range bake) {
+            super(compiled, queue);
+            this.source = source;
+            this.contextVariables = contextVariables;
+            this.constants = constants;
+            this.bake = bake;
+            this.actorVariables = compiled.actorVariableNames;
+        }
+    }
+
+    private void remember(CompiledMolang<Actor> compiled, String source, List<String> contextVariables, Map<String, float[]> constants, @Nullable BakedMolang.Range bake) {
+        LiveExpression<Actor> live = new LiveExpression<>(compiled, collectedExpressions, source, List.copyOf(contextVariables), Map.copyOf(constants), bake);
+        compiled.liveExpression = live;
+        liveExpressions.add(live);
+        for (String name : live.actorVariables) actorVariableReferences.merge(name, 1, Integer::sum);
+    }
+
+    private void forget(LiveExpression<Actor> live) {
+        if (!liveExpressions.remove(live)) return;
+        for (String name : live.actorVariables) actorVariableReferences.computeIfPresent(name, (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    // Release expressions which were garbage collected
+    @SuppressWarnings("unchecked")
+    private void pollCollectedExpressions() {
+        Reference<? extends CompiledMolang<Actor>> ref;
+        while ((ref = collectedExpressions.poll()) != null) forget((LiveExpression<Actor>) ref);
+    }
+
+    // Replace the actorVariables array, tracking the change in size
+    void setActorVariables(float[] newActorVariables) throws OOMErr {
+        if (allocState != null) allocState.changeSize((newActorVariables.length - actorVariables.length) * AllocationTracker.FLOAT_SIZE);
+        actorVariables = newActorVariables;
+        metrics.actorVariableCapacity = actorVariables.length;
+    }
+
+    // Share this instance between many actors, each with their own actor variables; see ActorVariableBank.
+    // Must be done before compiling anything, since only code compiled with a bank reads variables of the selected actor.
+    public ActorVariableBank<OOMErr> createActorVariableBank(int actors) throws OOMErr {
+        if (actorVariableBank != null) throw new IllegalStateException("Instance already has an actor variable bank");
+        if (actorVariableBuffer != null) throw new IllegalStateException("Actor variable banks can't be used with a buffer");
+        if (metrics.compiles > 0) throw new IllegalStateException("Actor variable bank must be created before compiling");
+        actorVariableBank = new ActorVariableBank<>(this, actors, nextActorVariable);
+        return actorVariableBank;
+    }
+
+    public @Nullable ActorVariableBank<OOMErr> getActorVariableBank() {
+        return actorVariableBank;
+    }
+
+    // Store actor variables in the buffer instead of the actorVariables array, so they can be shared with native code or
+    // a mapped file without copying. Compiled code reads and writes the buffer by absolute index, ignoring its position.
+    // Variables that already exist are copied in, and actorVariables becomes empty. Writers outside of molang should
+    // increment actorVariablesVersion, like with the array.
+    // The buffer can't grow, so compiling fails once it has no room for new variables. A direct buffer in native order
+    // (see allocateActorVariableBuffer()) is fastest. Must be done before compiling anything.
+    public void useActorVariableBuffer(FloatBuffer buffer) throws OOMErr {
+        if (actorVariableBuffer != null) throw new IllegalStateException("Instance already uses an actor variable buffer");
+        if (actorVariableBank != null) throw new IllegalStateException("Actor variable buffers can't be used with a bank");
+        if (metrics.compiles > 0) throw new IllegalStateException("Actor variable buffer must be set before compiling");
+        if (buffer.capacity() < nextActorVariable) throw new IllegalArgumentException("Actor variable buffer is too small for the existing variables");
+        buffer.put(0, actorVariables, 0, nextActorVariable);
+        setActorVariables(new float[0]);
+        actorVariableBuffer = buffer;
+        metrics.actorVariableCapacity = buffer.capacity();
+    }
+
+    // A zeroed direct buffer in native byte order, with room for this many floats
+    public static FloatBuffer allocateActorVariableBuffer(int floats) {
+        return ByteBuffer.allocateDirect(floats * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    // The most slots actor variables can take up, or Integer.MAX_VALUE if storage grows as needed
+    public int getMaxActorVariableSlots() {
+        return actorVariableBuffer != null ? actorVariableBuffer.capacity() : Integer.MAX_VALUE;
+    }
+
+    public int getUsedActorVariableSlots() {
+        return nextActorVariable;
+    }
+
+    // Read the current actor's variable slot, wherever variables are stored
+    public float readActorVariable(int location) {
+        int index = actorVariableBase + location;
+        return actorVariableBuffer != null ? actorVariableBuffer.get(index) : actorVariables[index];
+    }
+
     // If re-entrant (rare, hopefully...), we can't reuse the same array, so make a new one.
     public float[] getTempStack(int requiredSize) throws OOMErr {
         if (reEntrantFlag == 2) {
             float[] arr = new float[requiredSize];
             if (allocationTracker != null) allocationTracker.track(arr);
+            metrics.reEntrantTempArrays++;
             return arr;
         } else {
             return tempStack;
         }
     }
 
+    // Called at the start of metered code. The outermost evaluation gets a full budget, while re-entrant ones use up the
+    // budget of the evaluation they're inside of.
+    public void startMetered() {
+        if (reEntrantFlag <= 1) fuel = fuelBudget;
+        else consumeFuel(REENTRY_FUEL);
+    }
+
+    // Called by metered code before doing work. Throws OutOfFuelException, which the generated code catches, if there isn't enough.
+    public void consumeFuel(int amount) {
+        fuel -= amount;
+        if (fuel < 0) throw OutOfFuelException.INSTANCE;
+    }
+
+    // Fuel charged for starting a re-entrant evaluation
+    public static final int REENTRY_FUEL = 100;
+
+    // Thrown by consumeFuel(), and caught by the metered expression. Shared and without a stack trace, since it's only a signal.
+    public static final class OutOfFuelException extends RuntimeException {
+        public static final OutOfFuelException INSTANCE = new OutOfFuelException();
+        private OutOfFuelException() {
+            super("Molang evaluation ran out of fuel", null, false, false);
+        }
+    }
+
     // Get query
     public @Nullable Query<? super Actor, OOMErr> getQuery(String name) { return queries.get(name); }
 
     // A query accepts some args as input, and outputs a molang expression.
     // Many queries (especially the default queries) can work like macro expansions; for this reason they accept the Parser, so they can declare scopes and vars.
     // Queries accept source, start, and end positions so the can throw MolangCompileException.
+    // Nodes a query builds count against the compile budgets. Passing each through parser.node() makes large expansions fail as they are built.
     @FunctionalInterface
     public interface Query<Actor, OOMErr extends Throwable> { MolangExpr bind(MolangParser<OOMErr> parser, List<MolangExpr> args, String source, int funcNameStart, int funcNameEnd) throws OOMErr, MolangCompileException; }
 
@@ -124,98 +530,581 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
 
     // Parse the source and compile into java bytecode, creating a CompiledMolang
     public CompiledMolang<Actor> compile(String source, List<String> contextVariables, Map<String, float[]> constants) throws OOMErr, MolangCompileException {
-        int argCount = contextVariables.size();
+        return compile(source, contextVariables, constants, null);
+    }
+
+    // Like compile(), but if the expression is a pure function of the context variable named in bake, and expensive enough
+    // to be worth it, sample it into a lookup table over the range; see BakedMolang. Otherwise, it's compiled as usual.
+    public CompiledMolang<Actor> compile(String source, List<String> contextVariables, Map<String, float[]> constants, @Nullable BakedMolang.Range bake) throws OOMErr, MolangCompileException {
+        // Report it to the flight recorder, if it's recording
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            pollCollectedExpressions();
+            CompiledMolang<Actor> res = compileImpl(source, contextVariables, constants, bake, event);
+            remember(res, source, contextVariables, constants, bake);
+            succeeded = true;
+            return res;
+        } finally {
+            recordCompile(event, source, System.nanoTime() - start, succeeded);
+        }
+    }
+
+    // One expression for compileAll(), with the same arguments as compile()
+    public record CompileRequest(String source, List<String> contextVariables, Map<String, float[]> constants, @Nullable BakedMolang.Range bake) {
+        public CompileRequest(String source, List<String> contextVariables) {
+            this(source, contextVariables, Map.of(), null);
+        }
+    }
+
+    // What compileAll() did with one CompileRequest: either compiled it, or the error it failed with. That's a
+    // MolangCompileException for bad sources, or whatever else compiling it threw, which compile() would have thrown.
+    public record CompileResult<Actor>(@Nullable CompiledMolang<Actor> compiled, @Nullable Exception error) {}
+
+    // Compile many expressions at once, generating their bytecode in parallel on the pool. Parsing and loading the
+    // classes happen on this thread, in the order of the requests, so the results are the same as calling compile() on
+    // each in turn: the parser binds actor variables to their slots as it goes, creating new ones in the order it meets
+    // them, so parsing out of order would lay them out differently. Results are in the same order; an error in one,
+    // including unchecked exceptions, doesn't stop the others. Don't use the instance from other threads until this returns.
+    public List<CompileResult<Actor>> compileAll(List<CompileRequest> requests, ForkJoinPool pool) throws OOMErr {
+        pollCollectedExpressions();
+        List<Compilation> compilations = new ArrayList<>(requests.size());
+        for (CompileRequest request : requests) {
+            Compilation compilation = new Compilation(request.source(), request.contextVariables(), request.constants(), request.bake(), new CompileEvent(), null);
+            compilation.event.begin();
+            compilations.add(compilation);
+            long start = System.nanoTime();
+            try {
+                parse(compilation);
+            } catch (MolangCompileException | RuntimeException ex) {
+                compilation.error = ex;
+            }
+            compilation.nanos += System.nanoTime() - start;
+        }
+
+        // Generating only reads the instance, so it's safe to do many at once
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Compilation compilation : compilations) {
+            if (compilation.error != null || compilation.prebuilt != null) continue;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                long start = System.nanoTime();
+                try {
+                    generate(compilation);
+                } catch (MolangCompileException | RuntimeException ex) {
+                    compilation.error = ex;
+                }
+                compilation.nanos += System.nanoTime() - start;
+            }));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        List<CompileResult<Actor>> results = new ArrayList<>(requests.size());
+        for (Compilation compilation : compilations) {
+            CompiledMolang<Actor> res = compilation.prebuilt;
+            long start = System.nanoTime();
+            try {
+                if (compilation.error == null && res == null) res = define(compilation);
+            } catch (MolangCompileException | RuntimeException ex) {
+                compilation.error = ex;
+            } finally {
+                compilation.nanos += System.nanoTime() - start;
+            }
+            if (compilation.error != null) res = null;
+            else remember(res, compilation.source, compilation.contextVariables, compilation.constants, compilation.bake);
+            recordCompile(compilation.event, compilation.source, compilation.nanos, res != null);
+            results.add(new CompileResult<>(res, compilation.error));
+        }
+        return results;
+    }
+
+    // Like compileAll(), on the common pool
+    public List<CompileResult<Actor>> compileAll(List<CompileRequest> requests) throws OOMErr {
+        return compileAll(requests, ForkJoinPool.commonPool());
+    }
+
+    // Count a compile in the metrics, and report it to the flight recorder if it's recording
+    private void recordCompile(CompileEvent event, String source, long nanos, boolean succeeded) {
+        metrics.compiles++;
+        if (!succeeded) metrics.failedCompiles++;
+        metrics.compileNanos += nanos;
+        if (event.shouldCommit()) {
+            event.setSource(source);
+            event.commit();
+        }
+    }
+
+    // State of one expression as it's compiled, passed between parse(), generate(), and define()
+    private final class Compilation {
+        final String source;
+        final List<String> contextVariables;
+        final Map<String, float[]> constants;
+        final @Nullable BakedMolang.Range bake;
+        final CompileEvent event;
+        // Profile to specialize the code to, if recompiling a warm expression
+        final @Nullable ExecutionProfile profile;
+        @Nullable Exception error;
+        long nanos;
+
+        // Set by parse()
+        MolangParser<OOMErr> parser;
+        MolangExpr expr;
+        @Nullable PrebuiltMolang<Actor> prebuilt;
+        String name;
+        int arrayVariableIndex, firstUnusedLocal, vectorVariableStart, firstUnusedArraySlot;
+
+        // Set by generate()
+        @Nullable Speculation speculation;
+        byte[] classBytes;
+        @Nullable LiteralTable literals;
+        @Nullable ClassShape shape;
+        int maxArraySlots, locals;
+        CompiledMolang.CodeSize codeSize;
+
+        Compilation(String source, List<String> contextVariables, Map<String, float[]> constants, @Nullable BakedMolang.Range bake, CompileEvent event, @Nullable ExecutionProfile profile) {
+            this.source = source;
+            this.contextVariables = contextVariables;
+            this.constants = constants;
+            this.bake = bake;
+            this.event = event;
+            this.profile = profile;
+        }
+    }
+
+    private CompiledMolang<Actor> compileImpl(String source, List<String> contextVariables, Map<String, float[]> constants, @Nullable BakedMolang.Range bake, CompileEvent event) throws OOMErr, MolangCompileException {
+        return compileImpl(source, contextVariables, constants, bake, event, null);
+    }
+
+    private CompiledMolang<Actor> compileImpl(String source, List<String> contextVariables, Map<String, float[]> constants, @Nullable BakedMolang.Range bake, CompileEvent event, @Nullable ExecutionProfile profile) throws OOMErr, MolangCompileException {
+        Compilation compilation = new Compilation(source, contextVariables, constants, bake, event, profile);
+        parse(compilation);
+        if (compilation.prebuilt != null) return compilation.prebuilt;
+        generate(compilation);
+        return define(compilation);
+    }
+
+    // Parse the source, creating any actor variables it uses, and pick the class name. Trivial expressions are finished here.
+    private void parse(Compilation compilation) throws OOMErr, MolangCompileException {
+        int argCount = compilation.contextVariables.size();
         if (argCount > 8) throw new IllegalArgumentException("Must have at most 8 context variables");
 
         // Parse:
-        MolangParser<OOMErr> parser = new MolangParser<>(source, this, contextVariables, constants);
+        long parseStart = System.nanoTime();
+        MolangParser<OOMErr> parser = new MolangParser<>(compilation.source, this, compilation.contextVariables, compilation.constants);
         MolangExpr expr = parser.parseAll();
-        int arrayVariableIndex = argCount + 1;
-        int firstUnusedLocal = arrayVariableIndex + 1 + parser.getMaxLocalVariables();
+        compilation.parser = parser;
+        compilation.expr = expr;
+        compilation.event.parseTime = System.nanoTime() - parseStart;
+
+        // Trivial expressions don't need a class of their own
+        PrebuiltMolang<Actor> prebuilt = PrebuiltMolang.of(this, expr, argCount);
+        if (prebuilt != null) {
+            if (allocationTracker != null) {
+                allocationTracker.track(prebuilt, PrebuiltMolang.SIZE_ESTIMATE);
+                allocationTracker.track(prebuilt.output);
+            }
+            compilation.event.result = "prebuilt";
+            metrics.prebuiltExpressions++;
+            withAnalysis(prebuilt, expr, parser);
+            compilation.prebuilt = prebuilt;
+            return;
+        }
+
+        compilation.arrayVariableIndex = argCount + 1;
+        compilation.firstUnusedLocal = compilation.arrayVariableIndex + 1 + parser.getMaxLocalVariables();
+        // The float[] holds the result, then vector temp variables, then scratch space
+        compilation.vectorVariableStart = expr.returnCount();
+        compilation.firstUnusedArraySlot = compilation.vectorVariableStart + parser.getMaxArraySlots();
+        checkArraySlots(compilation.firstUnusedArraySlot, compilation.source);
+        compilation.name = loader.fetchUniqueName();
+    }
 
+    // Generate the class file. This doesn't change the instance, so compileAll() runs it on many threads at once.
+    private void generate(Compilation compilation) throws MolangCompileException {
+        long codegenStart = System.nanoTime();
+        String source = compilation.source;
+        MolangExpr expr = compilation.expr;
+        String name = compilation.name;
+        int argCount = compilation.contextVariables.size();
+        int arrayVariableIndex = compilation.arrayVariableIndex, firstUnusedLocal = compilation.firstUnusedLocal;
+        int vectorVariableStart = compilation.vectorVariableStart, firstUnusedArraySlot = compilation.firstUnusedArraySlot;
         try {
             // Compile to bytecode:
-            String name = loader.fetchUniqueName();
+            // With lifted literals, code reads them from the constants array
+            LiteralTable literals = liftLiterals ? new LiteralTable() : null;
+            // With debug info, code is mapped back to where it came from in the source
+            SourceMap sourceMap = debugInfo ? new SourceMap(compilation.parser.getSourcePositions()) : null;
+            // With profileGuided, code records a profile, or is specialized to the one it recorded.
+            // Sites are numbered before the splitter can regroup anything.
+            Speculation speculation = null;
+            if (compilation.profile != null) speculation = Speculation.optimizing(expr, compilation.profile, this::canReference);
+            else if (profileGuided && compilation.bake == null) speculation = Speculation.profiling(expr);
+            compilation.speculation = speculation;
 
-            ClassVisitor classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-            classWriter = new TraceClassVisitor(new CheckClassAdapter(classWriter), new PrintWriter(System.out));
+            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+            ClassVisitor classWriter = writer;
+            if (traceBytecode) classWriter = new TraceClassVisitor(new CheckClassAdapter(writer), new PrintWriter(System.out));
             classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, Type.getInternalName(CompiledMolang.class), null);
+            if (debugInfo) classWriter.visitSource(sourceFileName(source), null);
 
             // Constructor
-            MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II)V", null, null);
+            MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II[F)V", null, null);
             constructor.visitCode();
             constructor.visitVarInsn(Opcodes.ALOAD, 0);
             constructor.visitVarInsn(Opcodes.ALOAD, 1);
             constructor.visitVarInsn(Opcodes.ILOAD, 2);
             constructor.visitVarInsn(Opcodes.ILOAD, 3);
-            constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(CompiledMolang.class), "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II)V", false);
+            constructor.visitVarInsn(Opcodes.ALOAD, 4);
+            constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(CompiledMolang.class), "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II[F)V", false);
             constructor.visitInsn(Opcodes.RETURN);
             constructor.visitMaxs(0, 0);
             constructor.visitEnd();
 
+            // Measure the code, and split it up if it's too big
+            MethodSplitter splitter = new MethodSplitter(this, name, literals, sourceMap, speculation, arrayVariableIndex, firstUnusedLocal, vectorVariableStart, firstUnusedArraySlot);
+            int measuredSize = splitter.measure(expr);
+            if (measuredSize > maxClassBytes)
+                throw new MolangCompileException(MolangCompileException.CLASS_TOO_LARGE, maxClassBytes, measuredSize, source, 0, source.length());
+            // Cold branches are outlined even when it isn't too big
+            Set<MolangExpr> cold = speculation != null ? speculation.coldBranches() : Set.of();
+            boolean tooLarge = measuredSize > splitMethodSize;
+            boolean split = (tooLarge || !cold.isEmpty()) && splitter.plan(expr, tooLarge, cold);
+
             // evaluateImpl method, with the appropriate arg count
             String evaluateImplDesc = "(" + "F".repeat(argCount) + ")[F";
-            MethodVisitor evaluateMethod = classWriter.visitMethod(Opcodes.ACC_PROTECTED, "evaluateImpl", evaluateImplDesc, null, null);
-            evaluateMethod.visitCode();
-
-            // Cursed garbage required for re-entrancy support, plus our compiler is bad so it doesn't know how much space
-            // is needed until after compiling it
-            Label runCode = new Label();
-            Label setupFloatArrayLocal = new Label();
-            Label end = new Label();
-
-            // Jump to set up the float array local
-            evaluateMethod.visitJumpInsn(Opcodes.GOTO, setupFloatArrayLocal);
-            evaluateMethod.visitLabel(runCode);
-            // Run code, then jump to end
-            if (expr.returnCount() == 1) {
-                evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
-                BytecodeUtil.constInt(evaluateMethod, 0);
+            CodeSizeCounter evaluateMethod = new CodeSizeCounter(classWriter.visitMethod(Opcodes.ACC_PROTECTED, "evaluateImpl", evaluateImplDesc, null, null));
+            JvmCompilationContext ctx = new JvmCompilationContext(this, split ? splitter : null, literals, sourceMap, speculation, arrayVariableIndex, firstUnusedLocal, vectorVariableStart, firstUnusedArraySlot);
+            emitEvaluateMethod(classWriter, evaluateMethod, expr, ctx, false);
+            int maxArraySlots = ctx.getMaxArraySlots();
+            int extraCodeSize = 0;
+
+            // evaluateIntoImpl method, writing straight to a FloatBuffer. Split code would need its helpers twice, so it
+            // uses the default implementation, which copies.
+            if (bufferOutputs && !split) {
+                String evaluateIntoImplDesc = "(" + "F".repeat(argCount) + Type.getDescriptor(FloatBuffer.class) + "I)V";
+                CodeSizeCounter evaluateIntoMethod = new CodeSizeCounter(classWriter.visitMethod(Opcodes.ACC_PROTECTED, "evaluateIntoImpl", evaluateIntoImplDesc, null, null));
+                JvmCompilationContext intoCtx = new JvmCompilationContext(this, null, literals, sourceMap, speculation, arrayVariableIndex, firstUnusedLocal, vectorVariableStart, firstUnusedArraySlot);
+                emitEvaluateMethod(classWriter, evaluateIntoMethod, expr, intoCtx, true);
+                maxArraySlots = Math.max(maxArraySlots, intoCtx.getMaxArraySlots());
+                extraCodeSize = evaluateIntoMethod.size;
             }
-            JvmCompilationContext ctx = new JvmCompilationContext(arrayVariableIndex, firstUnusedLocal, 0);
-            int outputArrayIndex = ctx.reserveArraySlots(expr.returnCount());
-            expr.compileToJvmBytecode(evaluateMethod, outputArrayIndex, ctx);
-            if (expr.returnCount() == 1) {
-                evaluateMethod.visitInsn(Opcodes.FASTORE);
+
+            checkArraySlots(maxArraySlots, source);
+            classWriter.visitEnd();
+
+            byte[] classBytes = writer.toByteArray();
+            if (classBytes.length > maxClassBytes)
+                throw new MolangCompileException(MolangCompileException.CLASS_TOO_LARGE, maxClassBytes, classBytes.length, source, 0, source.length());
+
+            // If an expression of the same shape was compiled before, its class is identical apart from the name, so it can be reused
+            // Debug info is left out of the comparison, so shared classes keep the first expression's
+            compilation.shape = literals != null ? new ClassShape(withoutClassName(withoutDebugInfo(classBytes), name)) : null;
+            compilation.classBytes = classBytes;
+            compilation.literals = literals;
+            compilation.maxArraySlots = maxArraySlots;
+            compilation.locals = ctx.getMaxLocals();
+            compilation.codeSize = new CompiledMolang.CodeSize(evaluateMethod.size + splitter.getHelperCodeSize() + extraCodeSize, evaluateMethod.size, splitter.getHelperCount(), splitter.getLargestHelperSize());
+        } catch (MolangCompileException ex) {
+            throw ex; // Over budget
+        } catch (Exception ex) {
+            throw new IllegalStateException("Failed to compile molang", ex);
+        } finally {
+            compilation.event.codegenTime = System.nanoTime() - codegenStart;
+        }
+    }
+
+    // Load the generated class, or reuse one of the same shape, and create the CompiledMolang
+    private CompiledMolang<Actor> define(Compilation compilation) throws OOMErr, MolangCompileException {
+        long defineStart = System.nanoTime();
+        CompileEvent event = compilation.event;
+        MolangExpr expr = compilation.expr;
+        String name = compilation.name;
+        byte[] classBytes = compilation.classBytes;
+        ClassShape shape = compilation.shape;
+        LiteralTable literals = compilation.literals;
+        int maxArraySlots = compilation.maxArraySlots;
+
+        CompiledMolang<Actor> compiled;
+        try {
+            // Resize tempStack array if needed
+            if (tempStack.length < maxArraySlots) {
+                tempStack = Arrays.copyOf(tempStack, maxArraySlots);
+                metrics.tempStackSize = tempStack.length;
+                if (allocationTracker != null)
+                    allocationTracker.track(tempStack);
             }
-            evaluateMethod.visitJumpInsn(Opcodes.GOTO, end);
-            // Set up float array local at index 1
-            evaluateMethod.visitLabel(setupFloatArrayLocal);
+
+            Class<? extends CompiledMolang> clazz = shape != null ? classesByShape.get(shape) : null;
+            event.cacheHit = clazz != null;
+            if (clazz == null) {
+                // Pay for those bytes, plus even more because of all the other mem taken up by loaded classes in JIT and whatever (just an estimate here)
+                if (allocState != null) allocState.changeSize(classBytes.length * 4);
+                clazz = loader.create(name, classBytes);
+                if (debugInfo) sourcesByClassName.put(name, compilation.source);
+                if (shape != null) classesByShape.put(shape, clazz);
+                metrics.loadedClasses++;
+                metrics.loadedClassBytes += classBytes.length;
+            } else metrics.sharedClasses++;
+            float[] constantValues = literals != null ? literals.values() : new float[0];
+            if (allocationTracker != null && literals != null) allocationTracker.track(constantValues);
+            compiled = clazz.getDeclaredConstructor(MolangInstance.class, int.class, int.class, float[].class).newInstance(this, compilation.contextVariables.size(), expr.returnCount(), constantValues);
+            if (instrument) {
+                compiled.instrumentationId = instrumentation.register(compilation.source, expr.returnCount());
+                if (allocState != null) allocState.changeSize(Instrumentation.SIZE_PER_EXPRESSION);
+            }
+            compiled.codeSize = compilation.codeSize;
+            Speculation speculation = compilation.speculation;
+            if (speculation != null && speculation.isProfiling()) {
+                compiled.profile = new ExecutionProfile(speculation.branchSites(), speculation.querySites());
+                if (allocationTracker != null) allocationTracker.track(compiled.profile, compiled.profile.sizeEstimate());
+            } else if (speculation != null) {
+                compiled.speculatedOn = compilation.profile;
+            }
+            event.codegenTime += System.nanoTime() - defineStart;
+            event.classBytes = classBytes.length;
+            event.arraySlots = maxArraySlots;
+            event.locals = compilation.locals;
+            event.result = event.cacheHit ? "shared class" : "class";
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to compile molang", ex);
+        }
+        withAnalysis(compiled, expr, compilation.parser);
+        if (compilation.bake == null) return compiled;
+
+        BakedMolang<Actor> baked = BakedMolang.of(compiled, expr, compilation.bake, compilation.contextVariables);
+        if (baked == null) return compiled;
+        event.result = "baked";
+        metrics.bakedExpressions++;
+        if (allocationTracker != null) {
+            allocationTracker.track(baked, BakedMolang.SIZE_ESTIMATE);
+            allocationTracker.track(baked.table);
+            allocationTracker.track(baked.output);
+        }
+        return withAnalysis(baked, expr, compilation.parser);
+    }
+
+    // Emit evaluateImpl, or evaluateIntoImpl if intoBuffer, whose params after the context variables are the buffer and offset.
+    // Temp array slots the code needs are reserved in ctx. Helper methods, if ctx has a splitter, are emitted to classWriter.
+    private void emitEvaluateMethod(ClassVisitor classWriter, MethodVisitor evaluateMethod, MolangExpr expr, JvmCompilationContext ctx, boolean intoBuffer) {
+        int arrayVariableIndex = ctx.arrayVariableIndex;
+        evaluateMethod.visitCode();
+
+        // Cursed garbage required for re-entrancy support, plus our compiler is bad so it doesn't know how much space
+        // is needed until after compiling it
+        Label runCode = new Label();
+        Label setupFloatArrayLocal = new Label();
+        Label end = new Label();
+        Consumer<MethodVisitor> recordTime = null;
+
+        // The buffer and offset params are moved past the locals the code uses, since it reuses their slots
+        int bufferLocal = -1, offsetLocal = -1;
+        if (intoBuffer) {
+            bufferLocal = ctx.reserveLocals(1);
+            offsetLocal = ctx.reserveLocals(1);
+            // Both are loaded before storing either, since the new locals may overlap the params
+            evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+            evaluateMethod.visitVarInsn(Opcodes.ILOAD, arrayVariableIndex + 1);
+            evaluateMethod.visitVarInsn(Opcodes.ISTORE, offsetLocal);
+            evaluateMethod.visitVarInsn(Opcodes.ASTORE, bufferLocal);
+        }
+
+        if (instrument) {
+            // long startTime = instance.instrumentation.countCall(this.instrumentationId);
+            // Reserved from the context, so it's past the locals which helper methods take as parameters
+            int startTimeLocal = ctx.reserveLocals(2);
+            loadInstrumentation(evaluateMethod);
+            evaluateMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Instrumentation.class), "countCall", "(I)J", false);
+            evaluateMethod.visitVarInsn(Opcodes.LSTORE, startTimeLocal);
+            // At the end: instance.instrumentation.recordTime(this.instrumentationId, startTime);
+            recordTime = v -> {
+                loadInstrumentation(v);
+                v.visitVarInsn(Opcodes.LLOAD, startTimeLocal);
+                v.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(Instrumentation.class), "recordTime", "(IJ)V", false);
+            };
+        }
+        // Profiled code counts its calls, and so does specialized code, to tell how often its speculations miss
+        if (ctx.speculation != null && ctx.speculation.isProfiling()) {
+            Speculation.loadProfile(evaluateMethod);
+            evaluateMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(ExecutionProfile.class), "enter", "()V", false);
+        } else if (ctx.speculation != null && ctx.speculation.speculates()) {
+            ctx.speculation.countCall(evaluateMethod);
+        }
+        // Metered code returns 0s when it runs out of fuel
+        Label outOfFuel = new Label();
+        if (fuelMetering)
+            evaluateMethod.visitTryCatchBlock(runCode, setupFloatArrayLocal, outOfFuel, Type.getInternalName(OutOfFuelException.class));
+
+        // Jump to set up the float array local
+        evaluateMethod.visitJumpInsn(Opcodes.GOTO, setupFloatArrayLocal);
+        evaluateMethod.visitLabel(runCode);
+        if (fuelMetering) {
+            // Inside the handler's range, since a re-entrant evaluation can already run out here
             evaluateMethod.visitVarInsn(Opcodes.ALOAD, 0);
             evaluateMethod.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
-            BytecodeUtil.constInt(evaluateMethod, ctx.getMaxArraySlots());
-            evaluateMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MolangInstance.class), "getTempStack", "(I)[F", false);
-            evaluateMethod.visitVarInsn(Opcodes.ASTORE, arrayVariableIndex);
-            // Run the code now
-            evaluateMethod.visitJumpInsn(Opcodes.GOTO, runCode);
-            // End
-            evaluateMethod.visitLabel(end);
-
-            // Return the float array
+            evaluateMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MolangInstance.class), "startMetered", "()V", false);
+        }
+        if (ctx.splitter != null) ctx.splitter.initializeTempVariables(evaluateMethod);
+        // Run code, writing the result to the output, then jump to end
+        OperandLocation.ArrayLocation output = intoBuffer ? new OperandLocation.OutputBuffer(0, bufferLocal, offsetLocal) : new OperandLocation.TempArray(0);
+        if (expr.returnCount() == 1) {
+            output.loadArray(evaluateMethod, ctx);
+            output.loadIndex(evaluateMethod, ctx, 0);
+            expr.compileToJvmBytecode(evaluateMethod, -1, ctx);
+            output.storeInsn(evaluateMethod, ctx);
+        } else {
+            expr.compileToDestination(evaluateMethod, output, ctx);
+        }
+        evaluateMethod.visitJumpInsn(Opcodes.GOTO, end);
+        // Emit helper methods, which may need more temp space
+        if (ctx.splitter != null) ctx.reserveArraySlotsUpTo(ctx.splitter.emitHelpers(classWriter));
+        // Set up float array local at index 1
+        evaluateMethod.visitLabel(setupFloatArrayLocal);
+        evaluateMethod.visitVarInsn(Opcodes.ALOAD, 0);
+        evaluateMethod.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+        BytecodeUtil.constInt(evaluateMethod, ctx.getMaxArraySlots());
+        evaluateMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MolangInstance.class), "getTempStack", "(I)[F", false);
+        evaluateMethod.visitVarInsn(Opcodes.ASTORE, arrayVariableIndex);
+        // Run the code now
+        evaluateMethod.visitJumpInsn(Opcodes.GOTO, runCode);
+        // End
+        evaluateMethod.visitLabel(end);
+        if (recordTime != null) recordTime.accept(evaluateMethod);
+
+        // Return the float array, or nothing if the result went to the buffer
+        if (intoBuffer) {
+            evaluateMethod.visitInsn(Opcodes.RETURN);
+        } else {
             evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
             evaluateMethod.visitInsn(Opcodes.ARETURN);
-            evaluateMethod.visitMaxs(0, 0);
-            evaluateMethod.visitEnd();
+        }
+        if (fuelMetering) {
+            // Out of fuel: fill the result with 0s and return it
+            evaluateMethod.visitLabel(outOfFuel);
+            evaluateMethod.visitInsn(Opcodes.POP);
+            if (recordTime != null) recordTime.accept(evaluateMethod);
+            if (intoBuffer) {
+                evaluateMethod.visitVarInsn(Opcodes.ALOAD, bufferLocal);
+                evaluateMethod.visitVarInsn(Opcodes.ILOAD, offsetLocal);
+                BytecodeUtil.constInt(evaluateMethod, expr.returnCount());
+                evaluateMethod.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(CompiledMolang.class), "clearOutput", "(" + Type.getDescriptor(FloatBuffer.class) + "II)V", false);
+                evaluateMethod.visitInsn(Opcodes.RETURN);
+            } else {
+                evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+                BytecodeUtil.constInt(evaluateMethod, 0);
+                BytecodeUtil.constInt(evaluateMethod, expr.returnCount());
+                evaluateMethod.visitInsn(Opcodes.FCONST_0);
+                evaluateMethod.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill", "([FIIF)V", false);
+                evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+                evaluateMethod.visitInsn(Opcodes.ARETURN);
+            }
+        }
+        evaluateMethod.visitMaxs(0, 0);
+        evaluateMethod.visitEnd();
+    }
 
-            // Resize tempStack array if needed
-            if (tempStack.length < ctx.getMaxArraySlots()) {
-                tempStack = Arrays.copyOf(tempStack, ctx.getMaxArraySlots());
-                if (allocationTracker != null)
-                    allocationTracker.track(tempStack);
+    // Whether generated code can refer to the class: it must be public, and the same class by name from our loader
+    private boolean canReference(Class<?> clazz) {
+        if (!Modifier.isPublic(clazz.getModifiers())) return false;
+        try {
+            return Class.forName(clazz.getName(), false, loader) == clazz;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    // Push instance.instrumentation and this.instrumentationId
+    private static void loadInstrumentation(MethodVisitor visitor) {
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "instrumentation", Type.getDescriptor(Instrumentation.class));
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instrumentationId", "I");
+    }
+
+    private void checkArraySlots(int slots, String source) throws MolangCompileException {
+        if (slots > maxArraySlots)
+            throw new MolangCompileException(MolangCompileException.TOO_MANY_ARRAY_SLOTS, maxArraySlots, slots, source, 0, source.length());
+    }
+
+    // Analyze what the expr reads and roughly costs, and set up incremental evaluation if it's trackable
+    private CompiledMolang<Actor> withAnalysis(CompiledMolang<Actor> compiled, MolangExpr expr, MolangParser<OOMErr> parser) throws OOMErr {
+        compiled.dependencies = Dependencies.of(expr);
+        compiled.actorVariableNames = Set.copyOf(parser.getActorVariables());
+        compiled.estimatedCost = compiled instanceof BakedMolang<Actor> baked ? baked.lookupCost() : expr.estimateCost();
+        if (compiled.dependencies.trackable) {
+            compiled.initIncremental();
+            if (allocationTracker != null) {
+                allocationTracker.track(compiled.cachedResult);
+                allocationTracker.track(compiled.lastArgs);
+                allocationTracker.track(compiled.lastActorVariables);
             }
+        }
+        return compiled;
+    }
 
-            classWriter.visitEnd();
+    // Sources of the expressions that generated classes were compiled from, by class name (see debugInfo).
+    // Classes shared between expressions (see liftLiterals) map to the first one compiled.
+    private final Map<String, String> sourcesByClassName = new HashMap<>();
 
-            byte[] classBytes = ((ClassWriter) classWriter.getDelegate().getDelegate()).toByteArray();
+    // The source a generated class was compiled from, like "__CompiledMolang__3" from a stack trace or profile.
+    // Line numbers in the class are offsets into this, plus 1. Null if unknown, or compiled without debugInfo.
+    public @Nullable String getSource(String className) {
+        return sourcesByClassName.get(className);
+    }
 
-            // Pay for those bytes, plus even more because of all the other mem taken up by loaded classes in JIT and whatever (just an estimate here)
-            if (allocState != null) allocState.changeSize(classBytes.length * 4);
+    // Name for the SourceFile attribute: the start of the source, on one line
+    private static String sourceFileName(String source) {
+        String flat = source.replaceAll("\\s+", " ").trim();
+        return flat.length() > SOURCE_FILE_NAME_LENGTH ? flat.substring(0, SOURCE_FILE_NAME_LENGTH) + "..." : flat;
+    }
+    private static final int SOURCE_FILE_NAME_LENGTH = 64;
 
-            Class<? extends CompiledMolang> clazz = loader.create(name, classBytes);
-            return clazz.getDeclaredConstructor(MolangInstance.class, int.class, int.class).newInstance(this, argCount, expr.returnCount());
-        } catch (Exception ex) {
-            throw new IllegalStateException("Failed to compile molang", ex);
+    private static byte[] withoutDebugInfo(byte[] classBytes) {
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(classBytes).accept(writer, ClassReader.SKIP_DEBUG);
+        return writer.toByteArray();
+    }
+
+    // Classes of expressions compiled with lifted literals, by their bytecode apart from the name
+    private final Map<ClassShape, Class<? extends CompiledMolang>> classesByShape = new HashMap<>();
+
+    private record ClassShape(byte[] bytes) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ClassShape other && Arrays.equals(bytes, other.bytes);
+        }
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    // Copy of the class file with the constant holding its name emptied, so classes of the same shape compare equal
+    private static byte[] withoutClassName(byte[] classBytes, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        // The name is a CONSTANT_Utf8 entry: tag 1, u2 length, then the bytes
+        byte[] entry = new byte[nameBytes.length + 3];
+        entry[0] = 1;
+        entry[1] = (byte) (nameBytes.length >> 8);
+        entry[2] = (byte) nameBytes.length;
+        System.arraycopy(nameBytes, 0, entry, 3, nameBytes.length);
+        int index = indexOf(classBytes, entry);
+        if (index == -1) throw new IllegalStateException("Class name not found in generated class");
+        byte[] res = new byte[classBytes.length - nameBytes.length];
+        System.arraycopy(classBytes, 0, res, 0, index + 1); // Keep the tag, length becomes 0
+        System.arraycopy(classBytes, index + entry.length, res, index + 3, classBytes.length - index - entry.length);
+        return res;
+    }
+
+    private static int indexOf(byte[] array, byte[] target) {
+        outer:
+        for (int i = 0; i <= array.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++)
+                if (array[i + j] != target[j]) continue outer;
+            return i;
         }
+        return -1;
     }
 
     private static class CustomClassLoader extends ClassLoader {
@@ -0,0 +1,169 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.ast.ActorQueryCall;
+import org.figuramc.figura_molang.ast.Literal;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.StaticQueryCall;
+import org.figuramc.figura_molang.ast.VectorConstructor;
+import org.figuramc.figura_molang.ast.vars.ActorVariable;
+import org.figuramc.figura_molang.ast.vars.ContextVariable;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Shared CompiledMolang implementations for trivial expressions, which skip generating and loading a class.
+ * Many expressions are just a constant, a context variable, an actor variable, or a query without args.
+ * Each of these writes its result into its own array, so it doesn't touch the instance's temp stack.
+ */
+public abstract class PrebuiltMolang<Actor> extends CompiledMolang<Actor> {
+
+    // Results are written here
+    protected final float[] output;
+
+    private PrebuiltMolang(MolangInstance<Actor, ?> instance, int argCount, int returnCount) {
+        super(instance, argCount, returnCount);
+        this.output = new float[returnCount];
+        this.codeSize = new CodeSize(0, 0, 0, 0);
+    }
+
+    // Approximate memory used by one of these, besides the output array
+    public static final int SIZE_ESTIMATE = 64;
+
+    // Get a prebuilt implementation of the expr, or null if it isn't one of the trivial shapes.
+    public static <Actor> @Nullable PrebuiltMolang<Actor> of(MolangInstance<Actor, ?> instance, MolangExpr expr, int argCount) {
+        if (expr instanceof Literal literal)
+            return new Constant<>(instance, argCount, new float[] { literal.value });
+        if (expr instanceof VectorConstructor vec && vec.children().stream().allMatch(Literal.class::isInstance)) {
+            float[] values = new float[vec.returnCount()];
+            for (int i = 0; i < values.length; i++) values[i] = ((Literal) vec.children().get(i)).value;
+            return new Constant<>(instance, argCount, values);
+        }
+        if (expr instanceof ContextVariable variable)
+            return new ContextSlot<>(instance, argCount, variable.index);
+        if (expr instanceof ActorVariable variable)
+            return new ActorSlot<>(instance, argCount, variable.location, variable.size);
+        if (expr instanceof StaticQueryCall query && query.args.isEmpty()) {
+            MethodHandle handle = findHandle(query.methodOwnerClass, query.methodName, query.returnCount(), null, true);
+            if (handle != null) return new DirectQuery<>(instance, argCount, query.returnCount(), handle, null);
+        }
+        if (expr instanceof ActorQueryCall query && query.args.isEmpty()) {
+            MethodHandle handle = findHandle(query.methodOwnerClass, query.methodName, query.returnCount(), query.actorClass, query.isStatic);
+            if (handle != null) return new DirectQuery<>(instance, argCount, query.returnCount(), handle, query.actorClass);
+        }
+        return null;
+    }
+
+    // Find a no-arg query method, typed as (Object)F / (Object)[F if it takes the actor, or ()F / ()[F if not.
+    // Returns null if it can't be found, in which case the expression is compiled normally.
+    private static @Nullable MethodHandle findHandle(Class<?> owner, String name, int returnCount, @Nullable Class<?> actorClass, boolean isStatic) {
+        Class<?> returnType = returnCount == 1 ? float.class : float[].class;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            if (actorClass == null)
+                return lookup.findStatic(owner, name, MethodType.methodType(returnType));
+            MethodHandle handle = isStatic
+                    ? lookup.findStatic(owner, name, MethodType.methodType(returnType, actorClass))
+                    : lookup.findVirtual(actorClass, name, MethodType.methodType(returnType));
+            return handle.asType(MethodType.methodType(returnType, Object.class));
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    // The result, given all the args (unused ones are 0)
+    protected abstract float[] compute(float a, float b, float c, float d, float e, float f, float g, float h);
+
+    private void checkArgCount(int count) {
+        if (count != argCount) throw new UnsupportedOperationException("Wrong argument count to CompiledMolang.evaluateImpl()");
+    }
+
+    @Override protected final float[] evaluateImpl() { checkArgCount(0); return compute(0, 0, 0, 0, 0, 0, 0, 0); }
+    @Override protected final float[] evaluateImpl(float a) { checkArgCount(1); return compute(a, 0, 0, 0, 0, 0, 0, 0); }
+    @Override protected final float[] evaluateImpl(float a, float b) { checkArgCount(2); return compute(a, b, 0, 0, 0, 0, 0, 0); }
+    @Override protected final float[] evaluateImpl(float a, float b, float c) { checkArgCount(3); return compute(a, b, c, 0, 0, 0, 0, 0); }
+    @Override protected final float[] evaluateImpl(float a, float b, float c, float d) { checkArgCount(4); return compute(a, b, c, d, 0, 0, 0, 0); }
+    @Override protected final float[] evaluateImpl(float a, float b, float c, float d, float e) { checkArgCount(5); return compute(a, b, c, d, e, 0, 0, 0); }
+    @Override protected final float[] evaluateImpl(float a, float b, float c, float d, float e, float f) { checkArgCount(6); return compute(a, b, c, d, e, f, 0, 0); }
+    @Override protected final float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g) { checkArgCount(7); return compute(a, b, c, d, e, f, g, 0); }
+    @Override protected final float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g, float h) { checkArgCount(8); return compute(a, b, c, d, e, f, g, h); }
+
+    // Literals, or a vector of them
+    private static final class Constant<Actor> extends PrebuiltMolang<Actor> {
+        private Constant(MolangInstance<Actor, ?> instance, int argCount, float[] values) {
+            super(instance, argCount, values.length);
+            System.arraycopy(values, 0, output, 0, values.length);
+        }
+        @Override
+        protected float[] compute(float a, float b, float c, float d, float e, float f, float g, float h) {
+            return output; // Only read through a FloatArraySlice, so it's never modified
+        }
+    }
+
+    // c.name
+    private static final class ContextSlot<Actor> extends PrebuiltMolang<Actor> {
+        private final int index;
+        private ContextSlot(MolangInstance<Actor, ?> instance, int argCount, int index) {
+            super(instance, argCount, 1);
+            this.index = index;
+        }
+        @Override
+        protected float[] compute(float a, float b, float c, float d, float e, float f, float g, float h) {
+            output[0] = switch (index) { case 0 -> a; case 1 -> b; case 2 -> c; case 3 -> d; case 4 -> e; case 5 -> f; case 6 -> g; default -> h; };
+            return output;
+        }
+    }
+
+    // v.name
+    private static final class ActorSlot<Actor> extends PrebuiltMolang<Actor> {
+        private final int location;
+        private ActorSlot(MolangInstance<Actor, ?> instance, int argCount, int location, int size) {
+            super(instance, argCount, size);
+            this.location = location;
+        }
+        @Override
+        protected float[] compute(float a, float b, float c, float d, float e, float f, float g, float h) {
+            // Fetch the array each time, since it's replaced when it grows
+            int index = instance.actorVariableBase + location;
+            FloatBuffer buffer = instance.actorVariableBuffer;
+            if (buffer != null) buffer.get(index, output, 0, returnCount);
+            else if (returnCount == 1) output[0] = instance.actorVariables[index];
+            else System.arraycopy(instance.actorVariables, index, output, 0, returnCount);
+            return output;
+        }
+    }
+
+    // q.name, for a query method without args
+    private static final class DirectQuery<Actor> extends PrebuiltMolang<Actor> {
+        private final MethodHandle handle;
+        private final @Nullable Class<?> actorClass; // If non-null, the handle accepts the actor
+        private DirectQuery(MolangInstance<Actor, ?> instance, int argCount, int returnCount, MethodHandle handle, @Nullable Class<?> actorClass) {
+            super(instance, argCount, returnCount);
+            this.handle = handle;
+            this.actorClass = actorClass;
+        }
+        @Override
+        protected float[] compute(float a, float b, float c, float d, float e, float f, float g, float h) {
+            Object actor = instance.actor;
+            // Same as the generated code: if the actor isn't the right type, the result is 0
+            if (actorClass != null && !actorClass.isInstance(actor)) {
+                Arrays.fill(output, 0f);
+                return output;
+            }
+            try {
+                if (returnCount == 1) output[0] = actorClass == null ? (float) handle.invokeExact() : (float) handle.invokeExact(actor);
+                else System.arraycopy(actorClass == null ? (float[]) handle.invokeExact() : (float[]) handle.invokeExact(actor), 0, output, 0, returnCount);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable t) {
+                throw new IllegalStateException("Query threw a checked exception", t);
+            }
+            return output;
+        }
+    }
+
+}
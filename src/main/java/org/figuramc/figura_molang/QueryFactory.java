@@ -1,17 +1,20 @@
 package org.figuramc.figura_molang;
 
+import org.figuramc.figura_molang.ast.ActorQueryCall;
 import org.figuramc.figura_molang.ast.Literal;
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.StaticQueryCall;
 import org.figuramc.figura_molang.ast.VectorConstructor;
 import org.figuramc.figura_molang.ast.vars.ContextVariable;
-import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
-import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
-import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Class for creating custom queries on actors. They only accept scalars.
@@ -38,32 +41,27 @@ public class QueryFactory<Actor> {
      * From a generic static method, does not use an Actor.
      */
     public static MolangInstance.Query<Object, RuntimeException> fromStaticMethod(String name, Class<?> methodOwnerClass, String methodName, int paramCount, int returnCount) {
+        return fromStaticMethod(name, methodOwnerClass, methodName, paramCount, returnCount, false);
+    }
+
+    /**
+     * From a generic static method, does not use an Actor.
+     * If pure is true, the method promises to depend only on its args, and to have no side effects.
+     * Calls where every arg is a Literal are then evaluated once at compile time, and replaced by their result,
+     * and other calls don't stop incremental evaluation from skipping work (see CompiledMolang.evaluateIncremental()).
+     */
+    public static MolangInstance.Query<Object, RuntimeException> fromStaticMethod(String name, Class<?> methodOwnerClass, String methodName, int paramCount, int returnCount, boolean pure) {
         return (parser, args, source, funcNameStart, funcNameEnd) -> {
             // Verify args
             if (args.size() != paramCount) throw new MolangCompileException(MolangCompileException.WRONG_ARG_COUNT, name, String.valueOf(paramCount), String.valueOf(args.size()), source, funcNameStart, funcNameEnd);
             if (args.stream().anyMatch(MolangExpr::isVector)) throw new MolangCompileException(MolangCompileException.SCALAR_ARGS_ONLY, name, source, funcNameStart, funcNameEnd);
+            // If it's pure and the args are all known, run it now
+            if (pure && args.stream().allMatch(Literal.class::isInstance)) {
+                MolangExpr folded = foldStaticCall(name, methodOwnerClass, methodName, args, returnCount, source, funcNameStart, funcNameEnd);
+                if (folded != null) return folded;
+            }
             // Return
-            return new MolangExpr() {
-                @Override
-                protected int computeReturnCount() {
-                    return returnCount;
-                }
-                @Override
-                public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-                    // Call the method.
-                    for (MolangExpr arg : args) arg.compileToJvmBytecode(visitor, outputArrayIndex, context);
-                    String descriptor = "(" + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
-                    visitor.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
-                    // If it returned 1 float, we're done, otherwise copy from float[] into output
-                    if (returnCount != 1) {
-                        BytecodeUtil.constInt(visitor, 0); // [arr, 0]
-                        visitor.visitVarInsn(Opcodes.ALOAD, 1); // [arr, 0, temp]
-                        BytecodeUtil.constInt(visitor, outputArrayIndex); // [arr, 0, temp, dst]
-                        BytecodeUtil.constInt(visitor, returnCount); // [arr, 0, temp, dst, count]
-                        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
-                    }
-                }
-            };
+            return new StaticQueryCall(name, methodOwnerClass, methodName, args, returnCount, pure);
         };
     }
 
@@ -91,17 +89,53 @@ public class QueryFactory<Actor> {
             // Fetch the constant from the parser
             float[] values = parser.constants.get(constantName);
             if (values == null || values.length != constantLen) values = new float[constantLen];
-            if (values.length == 1) {
-                return new Literal(values[0]);
-            } else {
-                ArrayList<Literal> literals = new ArrayList<>(values.length);
-                for (int i = 0; i < values.length; i++)
-                    literals.add(new Literal(values[i]));
-                return new VectorConstructor(literals);
-            }
+            return literalOf(values);
         };
     }
 
+    // Invoke the static method with the literal args, and convert the result into literal(s).
+    // Returns null if the call fails or returns too few values, so it's compiled as usual, and only fails if it's reached.
+    private static @Nullable MolangExpr foldStaticCall(String name, Class<?> methodOwnerClass, String methodName, List<MolangExpr> args, int returnCount, String source, int funcNameStart, int funcNameEnd) throws MolangCompileException {
+        Class<?>[] paramTypes = new Class<?>[args.size()];
+        Object[] argValues = new Object[args.size()];
+        for (int i = 0; i < args.size(); i++) {
+            paramTypes[i] = float.class;
+            argValues[i] = ((Literal) args.get(i)).value;
+        }
+        Method method;
+        try {
+            method = methodOwnerClass.getMethod(methodName, paramTypes);
+        } catch (NoSuchMethodException ex) {
+            throw new MolangCompileException(MolangCompileException.QUERY_METHOD_NOT_FOUND, name, methodName, source, funcNameStart, funcNameEnd);
+        }
+        if (!Modifier.isStatic(method.getModifiers()) || method.getReturnType() != (returnCount == 1 ? float.class : float[].class))
+            throw new MolangCompileException(MolangCompileException.QUERY_METHOD_NOT_FOUND, name, methodName, source, funcNameStart, funcNameEnd);
+        Object result;
+        try {
+            result = method.invoke(null, argValues);
+        } catch (IllegalAccessException ex) {
+            throw new MolangCompileException(MolangCompileException.QUERY_METHOD_NOT_FOUND, name, methodName, source, funcNameStart, funcNameEnd);
+        } catch (InvocationTargetException ex) {
+            return null; // Threw for these args, which may never be reached at runtime
+        }
+        if (returnCount == 1) return new Literal((Float) result);
+        float[] values = (float[]) result;
+        if (values == null || values.length < returnCount) return null;
+        return literalOf(Arrays.copyOf(values, returnCount));
+    }
+
+    // A Literal for 1 value, or a VectorConstructor of Literals for more
+    private static MolangExpr literalOf(float[] values) {
+        if (values.length == 1) {
+            return new Literal(values[0]);
+        } else {
+            ArrayList<Literal> literals = new ArrayList<>(values.length);
+            for (int i = 0; i < values.length; i++)
+                literals.add(new Literal(values[i]));
+            return new VectorConstructor(literals);
+        }
+    }
+
 
     private static <Actor> MolangInstance.Query<Actor, RuntimeException> fromActorMethod(String name, Class<Actor> actorClass, Class<?> methodOwnerClass, boolean isStatic, String methodName, int paramCount, int returnCount) {
         return (parser, args, source, funcNameStart, funcNameEnd) -> {
@@ -109,54 +143,7 @@ public class QueryFactory<Actor> {
             if (args.size() != paramCount) throw new MolangCompileException(MolangCompileException.WRONG_ARG_COUNT, name, String.valueOf(paramCount), String.valueOf(args.size()), source, funcNameStart, funcNameEnd);
             if (args.stream().anyMatch(MolangExpr::isVector)) throw new MolangCompileException(MolangCompileException.SCALAR_ARGS_ONLY, name, source, funcNameStart, funcNameEnd);
             // Return
-            return new MolangExpr() {
-                @Override
-                protected int computeReturnCount() {
-                    return returnCount;
-                }
-                @Override
-                public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-                    // Test if actor instanceof actorClass
-                    visitor.visitVarInsn(Opcodes.ALOAD, 0);
-                    visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
-                    visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actor", Type.getDescriptor(Object.class));
-                    visitor.visitInsn(Opcodes.DUP);
-                    visitor.visitTypeInsn(Opcodes.INSTANCEOF, Type.getInternalName(actorClass));
-                    BytecodeUtil.ifElse(visitor, Opcodes.IFEQ, v -> {
-                        // If it's an instance, call the method
-                        visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(actorClass));
-                        for (MolangExpr arg : args) arg.compileToJvmBytecode(v, outputArrayIndex, context);
-                        if (isStatic) {
-                            String descriptor = "(" + Type.getDescriptor(actorClass) + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
-                            v.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
-                        } else {
-                            String descriptor = "(" + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
-                            v.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(actorClass), methodName, descriptor, false);
-                        }
-                        // If it returned 1 float, we're done, otherwise copy from float[] into output
-                        if (returnCount != 1) {
-                            BytecodeUtil.constInt(v, 0); // [arr, 0]
-                            v.visitVarInsn(Opcodes.ALOAD, 1); // [arr, 0, temp]
-                            BytecodeUtil.constInt(v, outputArrayIndex); // [arr, 0, temp, dst]
-                            BytecodeUtil.constInt(v, returnCount); // [arr, 0, temp, dst, count]
-                            v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
-                        }
-                    }, v -> {
-                        // Pop the extra reference
-                        v.visitInsn(Opcodes.POP);
-                        // Either push 0, or fill the result slice with 0.
-                        if (returnCount == 1) {
-                            BytecodeUtil.constFloat(v, 0);
-                        } else {
-                            v.visitVarInsn(Opcodes.ALOAD, 1);
-                            BytecodeUtil.constInt(v, outputArrayIndex);
-                            BytecodeUtil.constInt(v, outputArrayIndex + returnCount);
-                            BytecodeUtil.constFloat(v, 0);
-                            v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill", "([FIIF)V", false);
-                        }
-                    });
-                }
-            };
+            return new ActorQueryCall(name, actorClass, methodOwnerClass, isStatic, methodName, args, returnCount);
         };
     }
 
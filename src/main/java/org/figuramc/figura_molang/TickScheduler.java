@@ -0,0 +1,151 @@
+package org.figuramc.figura_molang;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Evaluates registered expressions once per tick, spread across the threads of a ForkJoinPool.
+ * A MolangInstance only supports one thread at a time (its temp stack, re-entrancy flag, actor and fuel are all shared
+ * by its expressions), so work is split up by instance: the entries of one instance run in registration order on one
+ * thread, while different instances run at the same time and idle threads steal the remaining ones. Entries for many
+ * actors of one ActorVariableBank therefore run on a single thread; give busy actors instances of their own to spread them out.
+ * Expressions and queries must only use their own instance, and sinks must be safe to call from several threads at once.
+ * Don't use the instances from other threads while a tick is running.
+ */
+public final class TickScheduler {
+
+    private final ForkJoinPool pool;
+    // Entries in registration order, grouped by instance
+    private final Map<MolangInstance<?, ?>, List<Entry<?>>> entriesByInstance = new IdentityHashMap<>();
+    private boolean ticking;
+
+    public TickScheduler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public TickScheduler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    // Receives the results of an entry's expressions, by index in its list. The slice is only valid during the call.
+    @FunctionalInterface
+    public interface Sink {
+        void accept(int expression, CompiledMolang.FloatArraySlice result);
+    }
+
+    // Expressions to evaluate every tick for one actor. Change the public fields between ticks to update the inputs.
+    public static final class Entry<Actor> {
+        public final MolangInstance<Actor, ?> instance;
+        public final List<CompiledMolang<Actor>> expressions;
+        public final Sink sink;
+        // Set as the instance's actor before evaluating
+        public @Nullable Actor actor;
+        // Actor to select in the instance's ActorVariableBank first, or -1 to leave it
+        public int bankActor = -1;
+        // Context variables, the first argCount of which are passed to each expression
+        public final float[] args = new float[8];
+        // Whether to use evaluateIncremental(), so expressions whose inputs didn't change return their last result
+        public boolean incremental;
+
+        private Entry(MolangInstance<Actor, ?> instance, @Nullable Actor actor, List<CompiledMolang<Actor>> expressions, Sink sink) {
+            this.instance = instance;
+            this.actor = actor;
+            this.expressions = expressions;
+            this.sink = sink;
+        }
+
+        private void run() {
+            instance.actor = actor;
+            if (bankActor >= 0) {
+                ActorVariableBank<?> bank = instance.getActorVariableBank();
+                if (bank == null) throw new IllegalStateException("Entry selects a bank actor, but the instance has no actor variable bank");
+                bank.select(bankActor);
+            }
+            for (int i = 0; i < expressions.size(); i++)
+                sink.accept(i, evaluate(expressions.get(i)));
+        }
+
+        private CompiledMolang.FloatArraySlice evaluate(CompiledMolang<Actor> expression) {
+            float[] a = args;
+            if (incremental) return switch (expression.argCount) {
+                case 0 -> expression.evaluateIncremental();
+                case 1 -> expression.evaluateIncremental(a[0]);
+                case 2 -> expression.evaluateIncremental(a[0], a[1]);
+                case 3 -> expression.evaluateIncremental(a[0], a[1], a[2]);
+                case 4 -> expression.evaluateIncremental(a[0], a[1], a[2], a[3]);
+                case 5 -> expression.evaluateIncremental(a[0], a[1], a[2], a[3], a[4]);
+                case 6 -> expression.evaluateIncremental(a[0], a[1], a[2], a[3], a[4], a[5]);
+                case 7 -> expression.evaluateIncremental(a[0], a[1], a[2], a[3], a[4], a[5], a[6]);
+                default -> expression.evaluateIncremental(a[0], a[1], a[2], a[3], a[4], a[5], a[6], a[7]);
+            };
+            return switch (expression.argCount) {
+                case 0 -> expression.evaluate();
+                case 1 -> expression.evaluate(a[0]);
+                case 2 -> expression.evaluate(a[0], a[1]);
+                case 3 -> expression.evaluate(a[0], a[1], a[2]);
+                case 4 -> expression.evaluate(a[0], a[1], a[2], a[3]);
+                case 5 -> expression.evaluate(a[0], a[1], a[2], a[3], a[4]);
+                case 6 -> expression.evaluate(a[0], a[1], a[2], a[3], a[4], a[5]);
+                case 7 -> expression.evaluate(a[0], a[1], a[2], a[3], a[4], a[5], a[6]);
+                default -> expression.evaluate(a[0], a[1], a[2], a[3], a[4], a[5], a[6], a[7]);
+            };
+        }
+    }
+
+    // Evaluate the expressions every tick, passing the results to sink. They must all be compiled by the instance.
+    public <Actor> Entry<Actor> register(MolangInstance<Actor, ?> instance, @Nullable Actor actor, List<CompiledMolang<Actor>> expressions, Sink sink) {
+        checkNotTicking();
+        for (CompiledMolang<Actor> expression : expressions)
+            if (expression.instance != instance) throw new IllegalArgumentException("Expression was compiled by a different instance");
+        Entry<Actor> entry = new Entry<>(instance, actor, List.copyOf(expressions), Objects.requireNonNull(sink));
+        entriesByInstance.computeIfAbsent(instance, k -> new ArrayList<>()).add(entry);
+        return entry;
+    }
+
+    public void unregister(Entry<?> entry) {
+        checkNotTicking();
+        List<Entry<?>> entries = entriesByInstance.get(entry.instance);
+        if (entries == null || !entries.remove(entry)) return;
+        if (entries.isEmpty()) entriesByInstance.remove(entry.instance);
+    }
+
+    // Evaluate every entry, returning once all are done. If an expression or sink throws, the exception is rethrown
+    // here, and entries which hadn't run yet may be skipped.
+    public void tick() {
+        checkNotTicking();
+        ticking = true;
+        try {
+            if (entriesByInstance.size() <= 1) {
+                // Not worth handing to the pool
+                for (List<Entry<?>> entries : entriesByInstance.values()) runAll(entries);
+                return;
+            }
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(entriesByInstance.size());
+            for (List<Entry<?>> entries : entriesByInstance.values())
+                tasks.add(ForkJoinTask.adapt(() -> runAll(entries)));
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } finally {
+            ticking = false;
+        }
+    }
+
+    public int instances() {
+        return entriesByInstance.size();
+    }
+
+    private static void runAll(List<Entry<?>> entries) {
+        for (Entry<?> entry : entries) entry.run();
+    }
+
+    private void checkNotTicking() {
+        if (ticking) throw new IllegalStateException("Can't do this during a tick");
+    }
+
+}
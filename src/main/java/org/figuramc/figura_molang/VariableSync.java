@@ -0,0 +1,153 @@
+package org.figuramc.figura_molang;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Tracks which actor variable slots were written, so their state can be synced by sending only what changed.
+ * Code compiled with MolangInstance.trackDirtyVariables marks the slots it assigns; host writes through
+ * ActorVariableBank.set() are marked too. Writes straight to the storage aren't, so mark those with markDirty().
+ *
+ * Snapshots and deltas are written to a ByteBuffer, in its byte order, as runs of consecutive slots:
+ * an int run count, then for each run an int start slot, an int length, and that many floats.
+ * Slots are indices into the whole storage, so with an ActorVariableBank they cover every actor.
+ * A snapshot is a single run of every slot, so applyDelta() applies both.
+ */
+public class VariableSync {
+
+    private final MolangInstance<?, ?> instance;
+    // One bit per slot of storage
+    private long[] dirty = new long[0];
+
+    VariableSync(MolangInstance<?, ?> instance) {
+        this.instance = instance;
+    }
+
+    // Called by generated code after assigning a variable of the current actor
+    public void markDirty(int location, int size) {
+        markRange(instance.actorVariableBase + location, size);
+    }
+
+    // Mark slots by their index in the whole storage
+    void markRange(int start, int size) {
+        int end = start + size;
+        if (end > dirty.length << 6) dirty = Arrays.copyOf(dirty, Math.max((end + 63) >> 6, dirty.length * 2));
+        for (int i = start; i < end; i++) dirty[i >> 6] |= 1L << i;
+    }
+
+    public void markAllDirty() {
+        markRange(0, slots());
+    }
+
+    public void clearDirty() {
+        Arrays.fill(dirty, 0);
+    }
+
+    public boolean isDirty(int slot) {
+        return slot >> 6 < dirty.length && (dirty[slot >> 6] & 1L << slot) != 0;
+    }
+
+    // Number of slots in use, which snapshots cover
+    public int slots() {
+        return instance.getActorVariableBank() != null ? instance.actorVariables.length : instance.getUsedActorVariableSlots();
+    }
+
+    // Bytes writeSnapshot() will take
+    public int snapshotSize() {
+        return 4 + 8 + slots() * 4;
+    }
+
+    // Write every slot's value, and clear the dirty slots, so the next delta is relative to this
+    public void writeSnapshot(ByteBuffer out) {
+        int slots = slots();
+        out.putInt(1);
+        out.putInt(0);
+        out.putInt(slots);
+        for (int i = 0; i < slots; i++) out.putFloat(read(i));
+        clearDirty();
+    }
+
+    // Bytes writeDelta() will take, if nothing is written before then
+    public int deltaSize() {
+        int size = 4;
+        int slots = slots();
+        for (int start = nextDirty(0, slots); start < slots; ) {
+            int end = nextClean(start, slots);
+            size += 8 + (end - start) * 4;
+            start = nextDirty(end, slots);
+        }
+        return size;
+    }
+
+    // Write the values of slots written since the last snapshot or delta, and clear the dirty slots.
+    // Returns the number of runs written; 0 means nothing changed.
+    public int writeDelta(ByteBuffer out) {
+        int slots = slots();
+        int countPosition = out.position();
+        out.putInt(0); // Filled in after
+        int runs = 0;
+        for (int start = nextDirty(0, slots); start < slots; ) {
+            int end = nextClean(start, slots);
+            out.putInt(start);
+            out.putInt(end - start);
+            for (int i = start; i < end; i++) out.putFloat(read(i));
+            runs++;
+            start = nextDirty(end, slots);
+        }
+        out.putInt(countPosition, runs);
+        clearDirty();
+        return runs;
+    }
+
+    // Write the values from a snapshot or delta into the storage. The slots aren't marked dirty, so applying what another
+    // instance sent doesn't send it back. Throws IndexOutOfBoundsException if a run is outside of the slots in use.
+    public void applyDelta(ByteBuffer in) {
+        int slots = slots();
+        int runs = in.getInt();
+        for (int run = 0; run < runs; run++) {
+            int start = in.getInt();
+            int length = in.getInt();
+            Objects.checkFromIndexSize(start, length, slots);
+            for (int i = start; i < start + length; i++) write(i, in.getFloat());
+        }
+        instance.actorVariablesVersion++;
+    }
+
+    // First dirty slot at or after from, or slots if there isn't one. Skips 64 clean slots at a time.
+    private int nextDirty(int from, int slots) {
+        int word = from >> 6;
+        if (word >= dirty.length) return slots;
+        long bits = dirty[word] & -1L << from;
+        while (bits == 0) {
+            if (++word >= dirty.length) return slots;
+            bits = dirty[word];
+        }
+        return Math.min(slots, (word << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    // First clean slot at or after from, or slots if there isn't one
+    private int nextClean(int from, int slots) {
+        int word = from >> 6;
+        if (word >= dirty.length) return Math.min(from, slots);
+        long bits = ~dirty[word] & -1L << from;
+        while (bits == 0) {
+            if (++word >= dirty.length) return slots;
+            bits = ~dirty[word];
+        }
+        return Math.min(slots, (word << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    private float read(int slot) {
+        FloatBuffer buffer = instance.actorVariableBuffer;
+        return buffer != null ? buffer.get(slot) : instance.actorVariables[slot];
+    }
+
+    private void write(int slot, float value) {
+        FloatBuffer buffer = instance.actorVariableBuffer;
+        if (buffer != null) buffer.put(slot, value);
+        else instance.actorVariables[slot] = value;
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.figuramc.figura_molang.ast;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.compile.jvm.Speculation;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.List;
+
+/**
+ * A call on the instance's actor, created by QueryFactory.fromActorMethod() and fromStaticActorMethod().
+ * If isStatic, it's a static method on methodOwnerClass accepting the actor and then the scalar args;
+ * otherwise it's a method on the actor accepting the scalar args.
+ * The method returns a float if returnCount is 1, or a float[] otherwise.
+ * If the actor is not an instance of actorClass, this evaluates to 0 (or a vector of zeros).
+ */
+public class ActorQueryCall extends MolangExpr {
+
+    public final String name;
+    public final Class<?> actorClass;
+    public final Class<?> methodOwnerClass;
+    public final boolean isStatic;
+    public final String methodName;
+    public final List<MolangExpr> args;
+    private final int returnCount;
+
+    public ActorQueryCall(String name, Class<?> actorClass, Class<?> methodOwnerClass, boolean isStatic, String methodName, List<MolangExpr> args, int returnCount) {
+        this.name = name;
+        this.actorClass = actorClass;
+        this.methodOwnerClass = methodOwnerClass;
+        this.isStatic = isStatic;
+        this.methodName = methodName;
+        this.args = args;
+        this.returnCount = returnCount;
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return args;
+    }
+
+    @Override
+    protected int computeReturnCount() {
+        return returnCount;
+    }
+
+    @Override
+    protected int computeCost() {
+        // Like a static query, plus fetching and type checking the actor
+        return totalCost(args) + QUERY_COST + returnCount() + 4;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        context.chargeFuel(visitor, QUERY_COST);
+        Speculation speculation = context.speculation;
+        if (speculation != null) speculation.recordActor(visitor, this);
+        // Test if actor instanceof actorClass
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actor", Type.getDescriptor(Object.class));
+        Class<?> speculatedClass = speculation != null ? speculation.monomorphicActor(this) : null;
+        Label end = new Label();
+        if (speculatedClass != null) {
+            // The profile only saw one class of actor, so check for exactly that class first, and call it directly.
+            // Any other class counts as a miss; no actor doesn't, since the profile ignores those.
+            Label miss = new Label();
+            Label generic = new Label();
+            visitor.visitInsn(Opcodes.DUP);
+            visitor.visitJumpInsn(Opcodes.IFNULL, generic);
+            visitor.visitInsn(Opcodes.DUP);
+            visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;", false);
+            visitor.visitLdcInsn(Type.getType(speculatedClass));
+            visitor.visitJumpInsn(Opcodes.IF_ACMPNE, miss);
+            emitCall(visitor, speculatedClass, outputArrayIndex, context);
+            visitor.visitJumpInsn(Opcodes.GOTO, end);
+            visitor.visitLabel(miss);
+            speculation.countMiss(visitor);
+            visitor.visitLabel(generic);
+        }
+        visitor.visitInsn(Opcodes.DUP);
+        visitor.visitTypeInsn(Opcodes.INSTANCEOF, Type.getInternalName(actorClass));
+        BytecodeUtil.ifElse(visitor, Opcodes.IFEQ, v -> {
+            // If it's an instance, call the method
+            emitCall(v, actorClass, outputArrayIndex, context);
+        }, v -> {
+            // Pop the extra reference
+            v.visitInsn(Opcodes.POP);
+            // Either push 0, or fill the result slice with 0.
+            if (returnCount == 1) {
+                BytecodeUtil.constFloat(v, 0);
+            } else {
+                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+                BytecodeUtil.constInt(v, outputArrayIndex);
+                BytecodeUtil.constInt(v, outputArrayIndex + returnCount);
+                BytecodeUtil.constFloat(v, 0);
+                v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill", "([FIIF)V", false);
+            }
+        });
+        visitor.visitLabel(end);
+    }
+
+    // With the actor on the stack, cast it to receiverClass and call the method
+    private void emitCall(MethodVisitor v, Class<?> receiverClass, int outputArrayIndex, JvmCompilationContext context) {
+        int paramCount = args.size();
+        v.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(receiverClass));
+        for (MolangExpr arg : args) arg.compileToJvmBytecode(v, outputArrayIndex, context);
+        if (isStatic) {
+            String descriptor = "(" + Type.getDescriptor(actorClass) + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
+            v.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
+        } else {
+            String descriptor = "(" + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
+            v.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(receiverClass), methodName, descriptor, false);
+        }
+        // If it returned 1 float, we're done, otherwise copy from float[] into output
+        if (returnCount != 1) {
+            BytecodeUtil.constInt(v, 0); // [arr, 0]
+            v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [arr, 0, temp]
+            BytecodeUtil.constInt(v, outputArrayIndex); // [arr, 0, temp, dst]
+            BytecodeUtil.constInt(v, returnCount); // [arr, 0, temp, dst, count]
+            v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package org.figuramc.figura_molang.ast;
 
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
 import org.figuramc.figura_molang.func.MolangFunction;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
 import java.util.List;
@@ -11,21 +13,56 @@ import java.util.List;
  */
 public class FunctionCall extends MolangExpr {
 
-    private final MolangFunction func;
-    private final List<MolangExpr> args;
+    public final MolangFunction func;
+    public final List<MolangExpr> args;
 
     public FunctionCall(MolangFunction func, List<MolangExpr> args) {
         this.func = func;
         this.args = args;
     }
 
+    @Override
+    public List<MolangExpr> children() {
+        return args;
+    }
+
     @Override
     public int computeReturnCount() {
         return func.returnCount(args);
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return args.stream().anyMatch(MolangExpr::hasSideEffects);
+    }
+
+    @Override
+    protected int computeCost() {
+        return func.estimateCost(args);
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         func.compile(visitor, args, outputArrayIndex, context);
     }
+
+    @Override
+    protected void compileToDestinationImpl(MethodVisitor visitor, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        func.compileToDestination(visitor, args, dest, context);
+    }
+
+    @Override
+    protected void compileToJvmConditionImpl(MethodVisitor visitor, Label target, boolean jumpIfTrue, JvmCompilationContext context) {
+        func.compileCondition(visitor, args, target, jumpIfTrue, context);
+    }
+
+    @Override
+    protected void compileToJvmConditionIntImpl(MethodVisitor visitor, JvmCompilationContext context) {
+        func.compileConditionInt(visitor, args, context);
+    }
 }
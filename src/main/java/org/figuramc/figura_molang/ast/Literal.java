@@ -1,8 +1,11 @@
 package org.figuramc.figura_molang.ast;
 
+import org.figuramc.figura_molang.CompiledMolang;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
 // A literal of a floating point value
 public class Literal extends MolangExpr {
@@ -19,7 +22,30 @@ public class Literal extends MolangExpr {
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-        BytecodeUtil.constFloat(visitor, value);
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return false;
+    }
+
+    @Override
+    protected int computeCost() {
+        return 0;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        if (context.literals != null) {
+            // Read it from this.constants
+            visitor.visitVarInsn(Opcodes.ALOAD, 0);
+            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "constants", "[F");
+            BytecodeUtil.constInt(visitor, context.literals.slotOf(this));
+            visitor.visitInsn(Opcodes.FALOAD);
+        } else {
+            BytecodeUtil.constFloat(visitor, value);
+        }
     }
 }
@@ -1,7 +1,17 @@
 package org.figuramc.figura_molang.ast;
 
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.compile.jvm.MethodSplitter;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
+import org.figuramc.figura_molang.compile.jvm.SourceMap;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayDeque;
+import java.util.List;
 
 public abstract class MolangExpr {
 
@@ -20,12 +30,183 @@ public abstract class MolangExpr {
     // The number of floats that this expr evaluates to
     protected abstract int computeReturnCount();
 
+    // Whether evaluating this could do anything besides produce a value (assign variables, return, run arbitrary query code).
+    // Exprs without side effects may be evaluated speculatively or out of order. Unknown exprs are assumed to have them.
+    public boolean hasSideEffects() {
+        return true;
+    }
+
+    // Whether this node's value depends only on its children and the variables it reads, so evaluating it can be
+    // skipped when none of those changed (see CompiledMolang.evaluateIncremental()). Only about this node, not its children.
+    // Exprs reading any other state, like most queries, must return false; unknown exprs are assumed to.
+    public boolean isTrackable() {
+        return false;
+    }
+
+    private int cachedCost = -1;
+
+    // A rough estimate of how expensive this is to evaluate, in units of about one simple instruction.
+    // Used by code generation heuristics, so it only needs to be roughly right.
+    // Children are estimated first with a loop rather than recursion, so long chains like a+b+c+... can't overflow the stack.
+    public final int estimateCost() {
+        if (cachedCost == -1) {
+            ArrayDeque<MolangExpr> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                MolangExpr expr = pending.peek();
+                boolean ready = true;
+                for (MolangExpr child : expr.children()) {
+                    if (child.cachedCost == -1) {
+                        pending.push(child);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    pending.pop();
+                    expr.cachedCost = expr.computeCost();
+                }
+            }
+        }
+        return cachedCost;
+    }
+
+    // See estimateCost(). Estimates of children are already cached when this is called.
+    protected int computeCost() {
+        return UNKNOWN_COST;
+    }
+
+    // Sum of the cost estimates of these exprs
+    public static int totalCost(List<? extends MolangExpr> exprs) {
+        int total = 0;
+        for (MolangExpr expr : exprs) total += expr.estimateCost();
+        return total;
+    }
+
+    // Cost estimate for exprs that don't know better, about that of a call which does a little work
+    public static final int UNKNOWN_COST = 20;
+    // Cost estimate for calling a query, not counting its args. The host's method could do anything.
+    public static final int QUERY_COST = 20;
+
+    // The direct sub-expressions of this one, in evaluation order. Used by passes which walk the tree.
+    public List<MolangExpr> children() {
+        return List.of();
+    }
+
     // Compile this expression to JVM bytecode.
     // A float[] for temporaries is at local variable <context.arrayVariableIndex>.
     // If this outputs multiple values, write the results to the float[], starting at the given index.
     // If it outputs one value, push it on the stack instead.
     // If we Return a single value, push it on the stack and jump to returnLabel.
     // If we Return multiple values, put them in the array at returnArrayIndex and jump to returnLabel.
-    public abstract void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context);
+    // If the method splitter chose to outline this expression, this emits a call to its helper method instead.
+    public final void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        SourceMap sourceMap = context.sourceMap;
+        int previousLine = sourceMap != null ? sourceMap.enter(this, visitor) : -1;
+        MethodSplitter splitter = context.splitter;
+        if (splitter == null) compileToJvmBytecodeImpl(visitor, outputArrayIndex, context);
+        else if (splitter.isOutlined(this)) splitter.callHelper(this, visitor, outputArrayIndex, context);
+        else splitter.measure(this, visitor, () -> compileToJvmBytecodeImpl(visitor, outputArrayIndex, context));
+        if (sourceMap != null) sourceMap.exit(visitor, previousLine);
+    }
+
+    // See compileToJvmBytecode()
+    protected abstract void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context);
+
+    // Where this expr's value can already be read from without evaluating anything, or null if it has to be evaluated.
+    // Consumers which only read elements (see OperandLocation) use this to skip copying variables into scratch space.
+    public @Nullable OperandLocation location(JvmCompilationContext context) {
+        return null;
+    }
+
+    // Compile this vector expression, writing its results to dest rather than to the temp float[].
+    // Assignments use this to write straight into the variable.
+    public final void compileToDestination(MethodVisitor visitor, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        if (dest instanceof OperandLocation.TempArray temp) {
+            compileToJvmBytecode(visitor, temp.offset(), context);
+            return;
+        }
+        SourceMap sourceMap = context.sourceMap;
+        int previousLine = sourceMap != null ? sourceMap.enter(this, visitor) : -1;
+        MethodSplitter splitter = context.splitter;
+        if (splitter == null) compileToDestinationImpl(visitor, dest, context);
+        else if (splitter.isOutlined(this)) {
+            // The helper writes to the temp float[], so copy from there
+            context.push();
+            int scratch = context.reserveArraySlots(returnCount());
+            splitter.callHelper(this, visitor, scratch, context);
+            OperandLocation.copy(visitor, context, new OperandLocation.TempArray(scratch), dest, returnCount());
+            context.pop();
+        }
+        else splitter.measure(this, visitor, () -> compileToDestinationImpl(visitor, dest, context));
+        if (sourceMap != null) sourceMap.exit(visitor, previousLine);
+    }
+
+    // By default, this compiles into scratch space and copies the result to dest.
+    // Exprs which produce their results element by element override it to store them directly.
+    protected void compileToDestinationImpl(MethodVisitor visitor, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        context.push();
+        int scratch = context.reserveArraySlots(returnCount());
+        compileToJvmBytecodeImpl(visitor, scratch, context);
+        OperandLocation.copy(visitor, context, new OperandLocation.TempArray(scratch), dest, returnCount());
+        context.pop();
+    }
+
+    // Compile this scalar expression as a condition, for use in a boolean context (ternaries, &&, ||, !).
+    // Jump to target if the condition's truthiness (nonzero) equals jumpIfTrue, otherwise fall through.
+    // Nothing is left on the stack either way.
+    public final void compileToJvmCondition(MethodVisitor visitor, Label target, boolean jumpIfTrue, JvmCompilationContext context) {
+        SourceMap sourceMap = context.sourceMap;
+        int previousLine = sourceMap != null ? sourceMap.enter(this, visitor) : -1;
+        MethodSplitter splitter = context.splitter;
+        if (splitter == null) compileToJvmConditionImpl(visitor, target, jumpIfTrue, context);
+        else if (splitter.isOutlined(this)) {
+            // The helper produces the float value, so test that
+            splitter.callHelper(this, visitor, -1, context);
+            BytecodeUtil.jumpOnCondition(visitor, target, jumpIfTrue);
+        }
+        else splitter.measure(this, visitor, () -> compileToJvmConditionImpl(visitor, target, jumpIfTrue, context));
+        if (sourceMap != null) sourceMap.exit(visitor, previousLine);
+    }
+
+    // By default, this evaluates the expression and compares it against 0. Comparisons and logical operators
+    // override it to jump directly, without materializing a 1 or 0 first.
+    protected void compileToJvmConditionImpl(MethodVisitor visitor, Label target, boolean jumpIfTrue, JvmCompilationContext context) {
+        compileToJvmBytecode(visitor, -1, context);
+        BytecodeUtil.jumpOnCondition(visitor, target, jumpIfTrue);
+    }
+
+    // Compile this scalar expression as a condition, pushing the int 1 if it's true or 0 if it's false.
+    // Used for branchless code.
+    public final void compileToJvmConditionInt(MethodVisitor visitor, JvmCompilationContext context) {
+        SourceMap sourceMap = context.sourceMap;
+        int previousLine = sourceMap != null ? sourceMap.enter(this, visitor) : -1;
+        MethodSplitter splitter = context.splitter;
+        if (splitter == null) compileToJvmConditionIntImpl(visitor, context);
+        else if (splitter.isOutlined(this)) {
+            splitter.callHelper(this, visitor, -1, context);
+            BytecodeUtil.conditionToInt(visitor);
+        }
+        else splitter.measure(this, visitor, () -> compileToJvmConditionIntImpl(visitor, context));
+        if (sourceMap != null) sourceMap.exit(visitor, previousLine);
+    }
+
+    // By default, this evaluates the expression and compares against 0 without branching;
+    // comparisons override it to skip materializing a float.
+    protected void compileToJvmConditionIntImpl(MethodVisitor visitor, JvmCompilationContext context) {
+        compileToJvmBytecode(visitor, -1, context);
+        BytecodeUtil.conditionToInt(visitor);
+    }
+
+    // Compile this scalar expression as a condition, then push 1 if it was true, or 0 if it was false.
+    protected final void compileConditionToFloat(MethodVisitor visitor, JvmCompilationContext context) {
+        Label isFalse = new Label();
+        Label end = new Label();
+        compileToJvmCondition(visitor, isFalse, false, context);
+        visitor.visitInsn(Opcodes.FCONST_1);
+        visitor.visitJumpInsn(Opcodes.GOTO, end);
+        visitor.visitLabel(isFalse);
+        visitor.visitInsn(Opcodes.FCONST_0);
+        visitor.visitLabel(end);
+    }
 
 }
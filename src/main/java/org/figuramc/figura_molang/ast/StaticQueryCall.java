@@ -0,0 +1,76 @@
+package org.figuramc.figura_molang.ast;
+
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.List;
+
+/**
+ * A call to a static method taking scalar args, created by QueryFactory.fromStaticMethod().
+ * The method returns a float if returnCount is 1, or a float[] otherwise.
+ * If pure, the method depends only on its args, and has no side effects.
+ */
+public class StaticQueryCall extends MolangExpr {
+
+    public final String name;
+    public final Class<?> methodOwnerClass;
+    public final String methodName;
+    public final List<MolangExpr> args;
+    private final int returnCount;
+    public final boolean pure;
+
+    public StaticQueryCall(String name, Class<?> methodOwnerClass, String methodName, List<MolangExpr> args, int returnCount, boolean pure) {
+        this.name = name;
+        this.methodOwnerClass = methodOwnerClass;
+        this.methodName = methodName;
+        this.args = args;
+        this.returnCount = returnCount;
+        this.pure = pure;
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return args;
+    }
+
+    @Override
+    protected int computeReturnCount() {
+        return returnCount;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return !pure || args.stream().anyMatch(MolangExpr::hasSideEffects);
+    }
+
+    @Override
+    public boolean isTrackable() {
+        return pure;
+    }
+
+    @Override
+    protected int computeCost() {
+        // Arbitrary host code, see QUERY_COST
+        return totalCost(args) + QUERY_COST + returnCount();
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        // Call the method.
+        context.chargeFuel(visitor, QUERY_COST);
+        for (MolangExpr arg : args) arg.compileToJvmBytecode(visitor, outputArrayIndex, context);
+        String descriptor = "(" + "F".repeat(args.size()) + ")" + (returnCount == 1 ? "F" : "[F");
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
+        // If it returned 1 float, we're done, otherwise copy from float[] into output
+        if (returnCount != 1) {
+            BytecodeUtil.constInt(visitor, 0); // [arr, 0]
+            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [arr, 0, temp]
+            BytecodeUtil.constInt(visitor, outputArrayIndex); // [arr, 0, temp, dst]
+            BytecodeUtil.constInt(visitor, returnCount); // [arr, 0, temp, dst, count]
+            visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+        }
+    }
+}
@@ -2,8 +2,8 @@ package org.figuramc.figura_molang.ast;
 
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
 
 import java.util.List;
 
@@ -16,22 +16,47 @@ public class VectorConstructor extends MolangExpr {
         if (exprs.size() <= 1) throw new IllegalStateException("Vector constructor expects at least 2 args - this should have already been checked!");
     }
 
+    @Override
+    public List<MolangExpr> children() {
+        return List.copyOf(exprs);
+    }
+
     @Override
     public int computeReturnCount() {
         return exprs.stream().mapToInt(MolangExpr::returnCount).sum();
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-        int i = outputArrayIndex;
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return exprs.stream().anyMatch(MolangExpr::hasSideEffects);
+    }
+
+    @Override
+    protected int computeCost() {
+        return totalCost(exprs) + returnCount();
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        compileToDestinationImpl(visitor, new OperandLocation.TempArray(outputArrayIndex), context);
+    }
+
+    @Override
+    protected void compileToDestinationImpl(MethodVisitor visitor, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        int i = 0;
         for (var expr : exprs) {
             if (expr.returnCount() == 1) {
-                visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // Load the array
-                BytecodeUtil.constInt(visitor, i);
-                expr.compileToJvmBytecode(visitor, i, context);
-                visitor.visitInsn(Opcodes.FASTORE);
+                dest.loadArray(visitor, context); // Load the array
+                dest.loadIndex(visitor, context, i);
+                expr.compileToJvmBytecode(visitor, -1, context);
+                dest.storeInsn(visitor, context);
             } else {
-                expr.compileToJvmBytecode(visitor, i, context);
+                expr.compileToDestination(visitor, dest.plus(i), context);
             }
             i += expr.returnCount();
         }
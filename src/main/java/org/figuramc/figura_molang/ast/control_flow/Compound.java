@@ -9,6 +9,7 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 import java.util.ArrayList;
+import java.util.List;
 
 // Built during parsing, tracks state to ensure consistency
 public class Compound extends MolangExpr {
@@ -32,6 +33,11 @@ public class Compound extends MolangExpr {
         finalized = true;
     }
 
+    @Override
+    public List<MolangExpr> children() {
+        return exprs;
+    }
+
     @Override
     protected int computeReturnCount() {
         if (!finalized) throw new IllegalStateException("Attempt to compute return count of Compound before it's finalized!");
@@ -39,7 +45,17 @@ public class Compound extends MolangExpr {
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    protected int computeCost() {
+        return totalCost(exprs);
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         if (!finalized) throw new IllegalStateException("Attempt to compile Compound before it's finalized!");
         Label newReturnLabel = new Label(); // New return label for exprs inside
         context.push(newReturnLabel, outputArrayIndex); // Push context; the return index is the compound's output index
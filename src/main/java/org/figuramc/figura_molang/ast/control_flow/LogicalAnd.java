@@ -2,14 +2,16 @@ package org.figuramc.figura_molang.ast.control_flow;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.compile.jvm.Speculation;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
+
+import java.util.List;
 
 // Both arguments must be scalars, because this is a logical operation and we want short-circuiting.
 public class LogicalAnd extends MolangExpr {
 
-    private final MolangExpr left, right;
+    public final MolangExpr left, right;
 
     public LogicalAnd(MolangExpr left, MolangExpr right) {
         if (left.isVector() || right.isVector()) throw new IllegalStateException("Logical and (&&) requires non-vector arguments. Should have already been checked!");
@@ -17,34 +19,54 @@ public class LogicalAnd extends MolangExpr {
         this.right = right;
     }
 
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(left, right);
+    }
+
     @Override
     protected int computeReturnCount() {
         return 1;
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-        Label zero = new Label();
-        Label end = new Label();
-        // Compare left against 0
-        left.compileToJvmBytecode(visitor, outputArrayIndex, context);
-        visitor.visitInsn(Opcodes.FCONST_0);
-        visitor.visitInsn(Opcodes.FCMPL);
-        // If left == 0, goto zero
-        visitor.visitJumpInsn(Opcodes.IFEQ, zero);
-        // Otherwise compute right, compare against 0
-        right.compileToJvmBytecode(visitor, outputArrayIndex, context);
-        visitor.visitInsn(Opcodes.FCONST_0);
-        visitor.visitInsn(Opcodes.FCMPL);
-        // If right == 0, goto zero
-        visitor.visitJumpInsn(Opcodes.IFEQ, zero);
-        // Push one, and goto end
-        visitor.visitInsn(Opcodes.FCONST_1);
-        visitor.visitJumpInsn(Opcodes.GOTO, end);
-        // Zero:
-        visitor.visitLabel(zero);
-        visitor.visitInsn(Opcodes.FCONST_0);
-        // End:
-        visitor.visitLabel(end);
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return left.hasSideEffects() || right.hasSideEffects();
+    }
+
+    @Override
+    protected int computeCost() {
+        return left.estimateCost() + right.estimateCost() + 2;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        compileConditionToFloat(visitor, context);
+    }
+
+    @Override
+    protected void compileToJvmConditionImpl(MethodVisitor visitor, Label target, boolean jumpIfTrue, JvmCompilationContext context) {
+        // While profiling, count how often right has to be evaluated. Once specialized, count it if it's cold.
+        Speculation speculation = context.speculation;
+        if (jumpIfTrue) {
+            // If left is false, the whole thing is false, so skip past. Otherwise, right decides.
+            Label skip = new Label();
+            if (speculation != null) speculation.countBranch(visitor, this, false);
+            left.compileToJvmCondition(visitor, skip, false, context);
+            if (speculation != null) speculation.countBranch(visitor, this, true);
+            right.compileToJvmCondition(visitor, target, true, context);
+            visitor.visitLabel(skip);
+        } else {
+            // If either is false, jump
+            if (speculation != null) speculation.countBranch(visitor, this, false);
+            left.compileToJvmCondition(visitor, target, false, context);
+            if (speculation != null) speculation.countBranch(visitor, this, true);
+            right.compileToJvmCondition(visitor, target, false, context);
+        }
     }
 }
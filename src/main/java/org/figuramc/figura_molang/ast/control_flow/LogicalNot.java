@@ -0,0 +1,65 @@
+package org.figuramc.figura_molang.ast.control_flow;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.List;
+
+// The argument must be a scalar, like the other logical operations.
+public class LogicalNot extends MolangExpr {
+
+    private final MolangExpr operand;
+
+    public LogicalNot(MolangExpr operand) {
+        if (operand.isVector()) throw new IllegalStateException("Logical not (!) requires a non-vector argument. Should have already been checked!");
+        this.operand = operand;
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(operand);
+    }
+
+    @Override
+    protected int computeReturnCount() {
+        return 1;
+    }
+
+    @Override
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return operand.hasSideEffects();
+    }
+
+    @Override
+    protected int computeCost() {
+        return operand.estimateCost() + 1;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        compileConditionToFloat(visitor, context);
+    }
+
+    @Override
+    protected void compileToJvmConditionImpl(MethodVisitor visitor, Label target, boolean jumpIfTrue, JvmCompilationContext context) {
+        // Just flip the condition
+        operand.compileToJvmCondition(visitor, target, !jumpIfTrue, context);
+    }
+
+    @Override
+    protected void compileToJvmConditionIntImpl(MethodVisitor visitor, JvmCompilationContext context) {
+        // Flip the low bit
+        operand.compileToJvmConditionInt(visitor, context);
+        BytecodeUtil.constInt(visitor, 1);
+        visitor.visitInsn(Opcodes.IXOR);
+    }
+}
@@ -5,6 +5,8 @@ import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 // Return from the enclosing Compound
 public class Return extends MolangExpr {
 
@@ -15,13 +17,28 @@ public class Return extends MolangExpr {
     }
 
     // Technically this has no return count! But we'll say 1, since that's least likely to cause issues.
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(expr);
+    }
+
     @Override
     protected int computeReturnCount() {
         return 1;
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    protected int computeCost() {
+        return expr.estimateCost() + 1;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         // Compile the expression, putting its output at the return array slot (or pushing it on the stack if it's a scalar)
         expr.compileToJvmBytecode(visitor, context.getReturnArraySlot(), context);
         // Jump to the return label.
@@ -0,0 +1,55 @@
+package org.figuramc.figura_molang.ast.control_flow;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.List;
+
+// A run of consecutive statements from a Compound, evaluated for their effects, and evaluating to the scalar 0.
+// Not produced by the parser; the method splitter groups statements of long Compounds into these, so it can outline them together.
+public class StatementGroup extends MolangExpr {
+
+    public final List<MolangExpr> exprs;
+
+    public StatementGroup(List<MolangExpr> exprs) {
+        this.exprs = exprs;
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return exprs;
+    }
+
+    @Override
+    protected int computeReturnCount() {
+        return 1;
+    }
+
+    @Override
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return exprs.stream().anyMatch(MolangExpr::hasSideEffects);
+    }
+
+    @Override
+    protected int computeCost() {
+        return totalCost(exprs);
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        // Same as the statements in a Compound, then push 0 to be popped by it
+        for (MolangExpr expr : exprs) {
+            expr.compileToJvmBytecode(visitor, outputArrayIndex, context);
+            if (!expr.isVector())
+                visitor.visitInsn(Opcodes.POP);
+        }
+        visitor.visitInsn(Opcodes.FCONST_0);
+    }
+}
@@ -2,17 +2,23 @@ package org.figuramc.figura_molang.ast.control_flow;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
-import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.Speculation;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 /**
  * Condition must be a scalar.
  * If the branches are both vectors, they must have the same size. If only one is a vector, the other will be splatted.
  */
 public class Ternary extends MolangExpr {
 
-    private final MolangExpr condition, ifTrue, ifFalse;
+    // Max combined cost of both arms for which we'd rather evaluate both than branch
+    private static final int MAX_BRANCHLESS_COST = 6;
+
+    public final MolangExpr condition, ifTrue, ifFalse;
 
     public Ternary(MolangExpr condition, MolangExpr ifTrue, MolangExpr ifFalse) {
         // Check arg sizes match up to requirements
@@ -23,20 +29,94 @@ public class Ternary extends MolangExpr {
         this.ifFalse = ifFalse;
     }
 
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(condition, ifTrue, ifFalse);
+    }
+
     @Override
     protected int computeReturnCount() {
         return ifTrue.isVector() ? ifTrue.returnCount() : ifFalse.returnCount();
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-        condition.compileToJvmBytecode(visitor, outputArrayIndex, context);
-        visitor.visitInsn(Opcodes.FCONST_0);
-        visitor.visitInsn(Opcodes.FCMPL);
-        BytecodeUtil.ifElse(
-                visitor, Opcodes.IFEQ,
-                v -> ifTrue.compileToJvmBytecode(v, outputArrayIndex, context),
-                v -> ifFalse.compileToJvmBytecode(v, outputArrayIndex, context)
-        );
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return condition.hasSideEffects() || ifTrue.hasSideEffects() || ifFalse.hasSideEffects();
+    }
+
+    @Override
+    protected int computeCost() {
+        return condition.estimateCost() + Math.max(ifTrue.estimateCost(), ifFalse.estimateCost()) + 2;
+    }
+
+    // Whether to evaluate both arms and select between them, instead of branching.
+    // Only worth it when both arms are cheap, and only allowed if evaluating the untaken one is unobservable.
+    // A branch the profile shows is predictable is cheaper than evaluating both, and profiling needs the branch.
+    private boolean shouldSelect(JvmCompilationContext context) {
+        Speculation speculation = context.speculation;
+        if (speculation != null && (speculation.isProfiling() || speculation.bias(this) != null)) return false;
+        return context.instance.branchless
+                && !ifTrue.isVector() && !ifFalse.isVector()
+                && !ifTrue.hasSideEffects() && !ifFalse.hasSideEffects()
+                && ifTrue.estimateCost() + ifFalse.estimateCost() <= MAX_BRANCHLESS_COST;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        if (shouldSelect(context)) {
+            compileSelect(visitor, context);
+            return;
+        }
+        Speculation speculation = context.speculation;
+        if (speculation != null && speculation.bias(this) == Boolean.FALSE) {
+            // The false arm is hot, so it goes first
+            Label trueBlock = new Label();
+            Label end = new Label();
+            condition.compileToJvmCondition(visitor, trueBlock, true, context);
+            ifFalse.compileToJvmBytecode(visitor, outputArrayIndex, context);
+            visitor.visitJumpInsn(Opcodes.GOTO, end);
+            visitor.visitLabel(trueBlock);
+            speculation.countBranch(visitor, this, true);
+            ifTrue.compileToJvmBytecode(visitor, outputArrayIndex, context);
+            visitor.visitLabel(end);
+            return;
+        }
+        Label elseBlock = new Label();
+        Label end = new Label();
+        if (speculation != null) speculation.countBranch(visitor, this, false);
+        // Jump straight to the else block if the condition is false
+        condition.compileToJvmCondition(visitor, elseBlock, false, context);
+        if (speculation != null) speculation.countBranch(visitor, this, true);
+        ifTrue.compileToJvmBytecode(visitor, outputArrayIndex, context);
+        visitor.visitJumpInsn(Opcodes.GOTO, end);
+        visitor.visitLabel(elseBlock);
+        if (speculation != null && speculation.bias(this) == Boolean.TRUE) speculation.countMiss(visitor);
+        ifFalse.compileToJvmBytecode(visitor, outputArrayIndex, context);
+        visitor.visitLabel(end);
+    }
+
+    // Computes f ^ ((t ^ f) & mask) on the raw bits, where mask is all ones if the condition holds and zero otherwise.
+    private void compileSelect(MethodVisitor visitor, JvmCompilationContext context) {
+        context.push();
+        int maskLocal = context.reserveLocals(1);
+        condition.compileToJvmConditionInt(visitor, context); // [1 or 0]
+        visitor.visitInsn(Opcodes.INEG); // [mask]
+        visitor.visitVarInsn(Opcodes.ISTORE, maskLocal); // []
+        ifTrue.compileToJvmBytecode(visitor, -1, context);
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToRawIntBits", "(F)I", false); // [t]
+        ifFalse.compileToJvmBytecode(visitor, -1, context);
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToRawIntBits", "(F)I", false); // [t, f]
+        visitor.visitInsn(Opcodes.DUP_X1); // [f, t, f]
+        visitor.visitInsn(Opcodes.IXOR); // [f, t ^ f]
+        visitor.visitVarInsn(Opcodes.ILOAD, maskLocal); // [f, t ^ f, mask]
+        visitor.visitInsn(Opcodes.IAND); // [f, (t ^ f) & mask]
+        visitor.visitInsn(Opcodes.IXOR); // [result]
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "intBitsToFloat", "(I)F", false);
+        context.pop();
     }
 }
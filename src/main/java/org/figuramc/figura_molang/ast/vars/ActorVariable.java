@@ -1,14 +1,11 @@
 package org.figuramc.figura_molang.ast.vars;
 
-import org.figuramc.figura_molang.CompiledMolang;
-import org.figuramc.figura_molang.MolangInstance;
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
-import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
 import org.figuramc.memory_tracker.AllocationTracker;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 
 public class ActorVariable extends MolangExpr {
 
@@ -33,22 +30,42 @@ public class ActorVariable extends MolangExpr {
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-        // Fetch array
-        visitor.visitVarInsn(Opcodes.ALOAD, 0);
-        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
-        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actorVariables", "[F");
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return false;
+    }
+
+    @Override
+    protected int computeCost() {
+        return isVector() ? 4 + size : 2; // Field loads, plus copying
+    }
+
+    @Override
+    public @Nullable OperandLocation location(JvmCompilationContext context) {
+        // Scalars are loaded once instead, which is cheaper than indexing the array on every read
+        return isVector() ? new OperandLocation.ActorArray(location) : null;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         if (isVector()) {
             // Copy from array into outputArrayIndex
-            BytecodeUtil.constInt(visitor, location); // [vars, src]
-            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [vars, src, out]
-            BytecodeUtil.constInt(visitor, outputArrayIndex); // [vars, src, out, dst]
-            BytecodeUtil.constInt(visitor, size); // [vars, src, out, dst, len]
-            visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false); // []
+            compileToDestinationImpl(visitor, new OperandLocation.TempArray(outputArrayIndex), context);
         } else {
             // Index array, put result on stack
-            BytecodeUtil.constInt(visitor, location);
-            visitor.visitInsn(Opcodes.FALOAD);
+            OperandLocation.ActorArray array = new OperandLocation.ActorArray(location);
+            array.loadArray(visitor, context);
+            array.loadIndex(visitor, context, 0);
+            array.loadInsn(visitor, context);
         }
     }
+
+    @Override
+    protected void compileToDestinationImpl(MethodVisitor visitor, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        OperandLocation.copy(visitor, context, new OperandLocation.ActorArray(location), dest, size);
+    }
 }
@@ -2,17 +2,24 @@ package org.figuramc.figura_molang.ast.vars;
 
 import org.figuramc.figura_molang.CompiledMolang;
 import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.VariableSync;
+import org.figuramc.figura_molang.ast.FunctionCall;
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.control_flow.Return;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
+import org.figuramc.figura_molang.func.FloatFunction;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import java.util.List;
+
 public class ActorVariableAssign extends MolangExpr {
 
-    private final ActorVariable variable;
-    private final MolangExpr rhs;
+    public final ActorVariable variable;
+    public final MolangExpr rhs;
 
     public ActorVariableAssign(ActorVariable variable, MolangExpr rhs) {
         this.variable = variable;
@@ -22,39 +29,79 @@ public class ActorVariableAssign extends MolangExpr {
             throw new IllegalStateException("Actor variable \"" + variable.name + "\" is size " + variable.size + ", but you try to assign " + rhs.returnCount() + " elements to it. This should have already been checked!");
     }
 
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(rhs);
+    }
+
     @Override
     protected int computeReturnCount() {
         return 1; // Assignment always evaluates to the scalar 0
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+    protected int computeCost() {
+        // Fetching the array, the stores, and bumping the version
+        return rhs.estimateCost() + variable.size + 4;
+    }
+
+    // Whether rhs can write its results straight into the variable. Not if it reads the variable after starting
+    // to write it, or could leave it half-written; then it's compiled to scratch space and copied over instead.
+    private boolean canWriteInPlace() {
+        // Element-wise functions read each element before overwriting it, so they can take the variable itself as an arg
+        if (rhs instanceof FunctionCall call && call.func instanceof FloatFunction)
+            return call.args.stream().allMatch(arg -> arg instanceof ActorVariable v && v.location == variable.location || !interferes(arg));
+        return !interferes(rhs);
+    }
+
+    private boolean interferes(MolangExpr expr) {
+        if (expr instanceof Return) return true;
+        if (expr instanceof ActorVariable v && v.location == variable.location) return true;
+        if (expr instanceof ActorVariableAssign assign && assign.variable.location == variable.location) return true;
+        return expr.children().stream().anyMatch(this::interferes);
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        OperandLocation.ActorArray dest = new OperandLocation.ActorArray(variable.location);
         if (variable.isVector()) {
-            // Reserve space and compile rhs to it
-            context.push();
-            int tempArraySpace = context.reserveArraySlots(variable.size);
-            rhs.compileToJvmBytecode(visitor, tempArraySpace, context);
-            // Copy from temp space into variable array
-            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp]
-            BytecodeUtil.constInt(visitor, tempArraySpace); // [temp, src]
-            visitor.visitVarInsn(Opcodes.ALOAD, 0);
-            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
-            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actorVariables", "[F"); // [temp, src, vars]
-            BytecodeUtil.constInt(visitor, variable.location); // [temp, src, vars, dst]
-            BytecodeUtil.constInt(visitor, variable.size); // [vars, src, out, dst, len]
-            visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false); // []
-            context.pop();
+            if (canWriteInPlace()) {
+                rhs.compileToDestination(visitor, dest, context);
+            } else {
+                // Reserve space and compile rhs to it, then copy into the variable
+                context.push();
+                int tempArraySpace = context.reserveArraySlots(variable.size);
+                rhs.compileToJvmBytecode(visitor, tempArraySpace, context);
+                OperandLocation.copy(visitor, context, new OperandLocation.TempArray(tempArraySpace), dest, variable.size);
+                context.pop();
+            }
         } else {
-            // Fetch array
-            visitor.visitVarInsn(Opcodes.ALOAD, 0);
-            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
-            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actorVariables", "[F"); // [vars]
+            dest.loadArray(visitor, context); // [vars]
             // Push location
-            BytecodeUtil.constInt(visitor, variable.location); // [vars, loc]
+            dest.loadIndex(visitor, context, 0); // [vars, loc]
             // Push rhs to stack
             rhs.compileToJvmBytecode(visitor, outputArrayIndex, context); // [vars, loc, rhs]
             // Store
-            visitor.visitInsn(Opcodes.FASTORE); // []
+            dest.storeInsn(visitor, context); // []
+        }
+        if (context.instance.countActorVariableWrites) {
+            // Count the write, so incremental evaluation notices the change
+            visitor.visitVarInsn(Opcodes.ALOAD, 0);
+            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+            visitor.visitInsn(Opcodes.DUP);
+            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actorVariablesVersion", "I");
+            visitor.visitInsn(Opcodes.ICONST_1);
+            visitor.visitInsn(Opcodes.IADD);
+            visitor.visitFieldInsn(Opcodes.PUTFIELD, Type.getInternalName(MolangInstance.class), "actorVariablesVersion", "I");
+        }
+        if (context.instance.trackDirtyVariables) {
+            // instance.variableSync.markDirty(location, size);
+            visitor.visitVarInsn(Opcodes.ALOAD, 0);
+            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "variableSync", Type.getDescriptor(VariableSync.class));
+            BytecodeUtil.constInt(visitor, variable.location);
+            BytecodeUtil.constInt(visitor, variable.size);
+            visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(VariableSync.class), "markDirty", "(II)V", false);
         }
         BytecodeUtil.constFloat(visitor, 0f); // Push 0 to stack, assignment result
     }
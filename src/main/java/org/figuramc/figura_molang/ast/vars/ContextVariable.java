@@ -21,7 +21,22 @@ public class ContextVariable extends MolangExpr {
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return false;
+    }
+
+    @Override
+    protected int computeCost() {
+        return 0;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         // Just load the local variable to the stack.
         // Offset by 1 because that's where the "this" instance of CompiledMolang is stored.
         visitor.visitVarInsn(Opcodes.FLOAD, 1 + this.index);
@@ -2,12 +2,12 @@ package org.figuramc.figura_molang.ast.vars;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
-import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
-// Instanceof checks can be used to fetch the location, increasing efficiency of calls.
-// If this is a vector, the location is an index in the float[] where the values start.
+// Consumers can read it in place through location(), rather than copying it first.
+// If this is a vector, the location is an index in the float[] where the values start, counting from context.vectorVariableStart.
 // If it's a scalar, it's a local variable index.
 public class TempVariable extends MolangExpr {
 
@@ -26,31 +26,49 @@ public class TempVariable extends MolangExpr {
         return size;
     }
 
+    @Override
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return false;
+    }
+
+    @Override
+    protected int computeCost() {
+        return isVector() ? size : 0; // Scalars are just a local
+    }
+
     public int getLogicalLocation() {
         return location; // Location within compilation, ignoring offsets
     }
 
     public int getRealLocation(JvmCompilationContext context) {
         // Offset for reserved space
-        return isVector() ? location : location + context.arrayVariableIndex + 1;
+        return isVector() ? location + context.vectorVariableStart : location + context.arrayVariableIndex + 1;
+    }
+
+    @Override
+    public OperandLocation location(JvmCompilationContext context) {
+        return isVector() ? new OperandLocation.TempArray(getRealLocation(context)) : new OperandLocation.Local(getRealLocation(context));
     }
 
     // Not always required to run; some code can use it directly from its local variable/array location without a copy
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         if (isVector()) {
-            // If variable is already at the right location, don't need to do anything!
-            if (outputArrayIndex == getRealLocation(context)) return;
-            // Copy to the output location, use System.arraycopy()
-            BytecodeUtil.constInt(visitor, getRealLocation(context));
-            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
-            visitor.visitInsn(Opcodes.DUP_X1);
-            BytecodeUtil.constInt(visitor, outputArrayIndex);
-            BytecodeUtil.constInt(visitor, size);
-            visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+            // Copy to the output location (which does nothing if the variable is already there)
+            compileToDestinationImpl(visitor, new OperandLocation.TempArray(outputArrayIndex), context);
         } else {
             // Load the local to the stack
             visitor.visitVarInsn(Opcodes.FLOAD, getRealLocation(context));
         }
     }
+
+    @Override
+    protected void compileToDestinationImpl(MethodVisitor visitor, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        OperandLocation.copy(visitor, context, new OperandLocation.TempArray(getRealLocation(context)), dest, size);
+    }
 }
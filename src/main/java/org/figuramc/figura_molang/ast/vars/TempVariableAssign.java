@@ -6,11 +6,13 @@ import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 // Assign to a temp variable
 public class TempVariableAssign extends MolangExpr {
 
-    private final TempVariable variable; // Which variable to assign to
-    private final MolangExpr rhs; // What to assign to the variable
+    public final TempVariable variable; // Which variable to assign to
+    public final MolangExpr rhs; // What to assign to the variable
 
     public TempVariableAssign(TempVariable variable, MolangExpr rhs) {
         this.variable = variable;
@@ -20,13 +22,28 @@ public class TempVariableAssign extends MolangExpr {
             throw new IllegalStateException("Temp variable \"" + variable.name + "\" is size " + variable.size + ", but you try to assign " + rhs.returnCount() + " elements to it. This should have already been checked!");
     }
 
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(rhs);
+    }
+
     @Override
     protected int computeReturnCount() {
         return 1; // Assignment always evaluates to the scalar 0
     }
 
     @Override
-    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+    public boolean isTrackable() {
+        return true;
+    }
+
+    @Override
+    protected int computeCost() {
+        return rhs.estimateCost() + variable.size;
+    }
+
+    @Override
+    protected void compileToJvmBytecodeImpl(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         // Compile the expr, putting its result into the variable
         if (variable.isVector()) {
             // If vector, compile and place result there
@@ -0,0 +1,58 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.ActorQueryCall;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.StaticQueryCall;
+import org.figuramc.figura_molang.ast.vars.ActorVariable;
+import org.figuramc.figura_molang.ast.vars.ContextVariable;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What an expression reads: which context variables, actor variable slots, and queries.
+ * If it's trackable, its result depends only on these, so it can be skipped when none of them changed.
+ */
+public class Dependencies {
+
+    // Whether every node in the expression is trackable, see MolangExpr.isTrackable()
+    public final boolean trackable;
+    // Bit i is set if context variable i is read
+    public final int contextVariables;
+    // Indices into MolangInstance.actorVariables that are read, in ascending order
+    public final int[] actorVariableSlots;
+    // Names of the queries called
+    public final Set<String> queries;
+
+    private Dependencies(boolean trackable, int contextVariables, int[] actorVariableSlots, Set<String> queries) {
+        this.trackable = trackable;
+        this.contextVariables = contextVariables;
+        this.actorVariableSlots = actorVariableSlots;
+        this.queries = queries;
+    }
+
+    public static Dependencies of(MolangExpr expr) {
+        Collector collector = new Collector();
+        collector.visit(expr);
+        int[] slots = collector.actorVariableSlots.stream().mapToInt(Integer::intValue).toArray();
+        return new Dependencies(collector.trackable, collector.contextVariables, slots, Set.copyOf(collector.queries));
+    }
+
+    private static class Collector {
+        boolean trackable = true;
+        int contextVariables;
+        final TreeSet<Integer> actorVariableSlots = new TreeSet<>();
+        final TreeSet<String> queries = new TreeSet<>();
+
+        void visit(MolangExpr expr) {
+            if (!expr.isTrackable()) trackable = false;
+            if (expr instanceof ContextVariable variable) contextVariables |= 1 << variable.index;
+            if (expr instanceof ActorVariable variable)
+                for (int i = 0; i < variable.size; i++) actorVariableSlots.add(variable.location + i);
+            if (expr instanceof StaticQueryCall query) queries.add(query.name);
+            if (expr instanceof ActorQueryCall query) queries.add(query.name);
+            for (MolangExpr child : expr.children()) visit(child);
+        }
+    }
+
+}
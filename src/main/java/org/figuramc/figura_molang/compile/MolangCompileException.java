@@ -73,6 +73,7 @@ public class MolangCompileException extends Exception {
     public static final Translatable<TranslatableItems.Items2<String, String>> EXPECTED_LIST = Translatable.create("figura_molang.error.compile.expected_list", String.class, String.class);
     public static final Translatable<TranslatableItems.Items0> LOGICAL_AND_EXPECTS_SCALARS = Translatable.create("figura_molang.error.compile.logical_and_expects_scalars");
     public static final Translatable<TranslatableItems.Items0> LOGICAL_OR_EXPECTS_SCALARS = Translatable.create("figura_molang.error.compile.logical_or_expects_scalars");
+    public static final Translatable<TranslatableItems.Items0> LOGICAL_NOT_EXPECTS_SCALAR = Translatable.create("figura_molang.error.compile.logical_not_expects_scalar");
     public static final Translatable<TranslatableItems.Items0> TERNARY_CONDITION_EXPECTS_SCALAR = Translatable.create("figura_molang.error.compile.ternary_condition_expects_scalar");
     public static final Translatable<TranslatableItems.Items2<Integer, Integer>> TERNARY_BRANCHES_MUST_BE_SAME_SIZE = Translatable.create("figura_molang.error.compile.ternary_branches_must_be_same_size", Integer.class, Integer.class);
     public static final Translatable<TranslatableItems.Items3<String, Integer, Integer>> INCOMPATIBLE_VAR_SIZE = Translatable.create("figura_molang.error.compile.incompatible_var_size", String.class, Integer.class, Integer.class);
@@ -80,6 +81,14 @@ public class MolangCompileException extends Exception {
     public static final Translatable<TranslatableItems.Items3<String, String, String>> WRONG_ARG_COUNT = Translatable.create("figura_molang.error.compile.wrong_arg_count", String.class, String.class, String.class);
     public static final Translatable<TranslatableItems.Items3<String, Integer, Integer>> VECTOR_ARGS_SAME_SIZE = Translatable.create("figura_molang.error.compile.vector_args_same_size", String.class, Integer.class, Integer.class);
     public static final Translatable<TranslatableItems.Items1<String>> SCALAR_ARGS_ONLY = Translatable.create("figura_molang.error.compile.scalar_args_only", String.class);
+    public static final Translatable<TranslatableItems.Items2<String, String>> QUERY_METHOD_NOT_FOUND = Translatable.create("figura_molang.error.compile.query_method_not_found", String.class, String.class);
+    // Compile budgets, see MolangInstance
+    public static final Translatable<TranslatableItems.Items1<Integer>> TOO_MANY_NODES = Translatable.create("figura_molang.error.compile.too_many_nodes", Integer.class);
+    public static final Translatable<TranslatableItems.Items1<Integer>> NESTING_TOO_DEEP = Translatable.create("figura_molang.error.compile.nesting_too_deep", Integer.class);
+    public static final Translatable<TranslatableItems.Items2<Integer, Integer>> VECTOR_TOO_LARGE = Translatable.create("figura_molang.error.compile.vector_too_large", Integer.class, Integer.class);
+    public static final Translatable<TranslatableItems.Items2<Integer, Integer>> TOO_MANY_ARRAY_SLOTS = Translatable.create("figura_molang.error.compile.too_many_array_slots", Integer.class, Integer.class);
+    public static final Translatable<TranslatableItems.Items2<Integer, Integer>> CLASS_TOO_LARGE = Translatable.create("figura_molang.error.compile.class_too_large", Integer.class, Integer.class);
+    public static final Translatable<TranslatableItems.Items1<Integer>> ACTOR_VARIABLES_FULL = Translatable.create("figura_molang.error.compile.actor_variables_full", Integer.class);
 
 
 
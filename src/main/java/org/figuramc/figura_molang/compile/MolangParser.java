@@ -9,6 +9,7 @@ import org.figuramc.figura_molang.ast.control_flow.*;
 import org.figuramc.figura_molang.ast.vars.*;
 import org.figuramc.figura_molang.func.ComparisonOperator;
 import org.figuramc.figura_molang.func.FloatFunction;
+import org.figuramc.figura_molang.func.MathFunctions;
 import org.figuramc.figura_molang.func.MolangFunction;
 
 import java.util.*;
@@ -23,6 +24,14 @@ public class MolangParser<OOMErr extends Throwable> {
 
     private final Stack<Compound> scopes = new Stack<>();
     private int maxLocalVariables = 0; // Store maximum JVM local variables used, so temporaries can go past it
+    private int maxArraySlots = 0; // Same for the float[] slots used by vector variables
+
+    // For the instance's compile budgets
+    private int nodes = 0; // AST nodes created so far
+    private int nesting = 0; // Current recursion depth of parseTernary() and parseUnary()
+    private final IdentityHashMap<MolangExpr, Integer> depths = new IdentityHashMap<>(); // Height of each node's subtree
+    private final IdentityHashMap<MolangExpr, Integer> positions = new IdentityHashMap<>(); // Source offset of each node, for debug info
+    private final Set<String> actorVariables = new HashSet<>(); // Names of the actor variables referred to
 
     // Only a MolangInstance should ever construct one of these.
     // Please don't try to use this class on your own.
@@ -45,6 +54,21 @@ public class MolangParser<OOMErr extends Throwable> {
         return maxLocalVariables;
     }
 
+    // Where each node parsed from the source starts in it. Nodes created by queries start where the query does.
+    public Map<MolangExpr, Integer> getSourcePositions() {
+        return positions;
+    }
+
+    // Names of the actor variables the source refers to, including ones only assigned
+    public Set<String> getActorVariables() {
+        return actorVariables;
+    }
+
+    // Get the maximum float[] slots used by vector variables at any point in this expr, so temporaries can go past them
+    public int getMaxArraySlots() {
+        return maxArraySlots;
+    }
+
     // ---------------------
     // | PARSING OPERATORS |
     // ---------------------
@@ -54,8 +78,11 @@ public class MolangParser<OOMErr extends Throwable> {
     }
 
     private MolangExpr parseTernary() throws OOMErr, MolangCompileException {
+        // Parens and blocks recurse without creating nodes, so they're limited here
+        enter();
         MolangExpr res = parseLogicalOr();
         if (consume('?', true)) {
+            int question = current - 1;
             if (res.isVector()) throw new MolangCompileException(MolangCompileException.TERNARY_CONDITION_EXPECTS_SCALAR, source, current - 1, current);
             MolangExpr ifTrue = parseLogicalOr();
             if (!consume(':', true)) throw new MolangCompileException(MolangCompileException.EXPECTED_TERNARY_COLON, source, current - 1, current);
@@ -63,8 +90,10 @@ public class MolangParser<OOMErr extends Throwable> {
             MolangExpr ifFalse = parseTernary();
             if (ifTrue.returnCount() != ifFalse.returnCount())
                 throw new MolangCompileException(MolangCompileException.TERNARY_BRANCHES_MUST_BE_SAME_SIZE, ifTrue.returnCount(), ifFalse.returnCount(), source, falseStart, current);
-            return new Ternary(res, ifTrue, ifFalse);
+            nesting--;
+            return node(new Ternary(res, ifTrue, ifFalse), question);
         }
+        nesting--;
         return res;
     }
 
@@ -75,7 +104,7 @@ public class MolangParser<OOMErr extends Throwable> {
             MolangExpr rhs = parseLogicalAnd();
             if (res.isVector() || rhs.isVector())
                 throw new MolangCompileException(MolangCompileException.LOGICAL_OR_EXPECTS_SCALARS, source, start, end);
-            res = new LogicalOr(res, rhs);
+            res = node(new LogicalOr(res, rhs), start);
         }
         return res;
     }
@@ -87,37 +116,40 @@ public class MolangParser<OOMErr extends Throwable> {
             MolangExpr rhs = parseEquality();
             if (res.isVector() || rhs.isVector())
                 throw new MolangCompileException(MolangCompileException.LOGICAL_AND_EXPECTS_SCALARS, source, start, end);
-            res = new LogicalAnd(res, rhs);
+            res = node(new LogicalAnd(res, rhs), start);
         }
         return res;
     }
 
     private MolangExpr parseEquality() throws OOMErr, MolangCompileException {
         MolangExpr res = parseComparison();
-        while (consume("==", true) || consume("!=", true))
-            res = new FunctionCall(switch (last(2)) {
+        while (consume("==", true) || consume("!=", true)) {
+            int op = current - 2;
+            res = node(new FunctionCall(switch (last(2)) {
                 case "==" -> ComparisonOperator.EQ_OP;
                 case "!=" -> ComparisonOperator.NE_OP;
                 default -> throw new IllegalStateException();
-            }, List.of(res, parseComparison()));
+            }, List.of(res, parseComparison())), op);
+        }
         return res;
     }
 
     private MolangExpr parseComparison() throws OOMErr, MolangCompileException {
         MolangExpr res = parseSum();
         while (consumeAny("><", true)) {
+            int op = current - 1;
             if (consume('=', false)) {
-                res = new FunctionCall(switch (last(2)) {
+                res = node(new FunctionCall(switch (last(2)) {
                     case "<=" -> ComparisonOperator.LE_OP;
                     case ">=" -> ComparisonOperator.GE_OP;
                     default -> throw new IllegalStateException();
-                }, List.of(res, parseSum()));
+                }, List.of(res, parseSum())), op);
             } else {
-                res = new FunctionCall(switch (last()) {
+                res = node(new FunctionCall(switch (last()) {
                     case "<" -> ComparisonOperator.LT_OP;
                     case ">" -> ComparisonOperator.GT_OP;
                     default -> throw new IllegalStateException();
-                }, List.of(res, parseSum()));
+                }, List.of(res, parseSum())), op);
             }
         }
         return res;
@@ -125,34 +157,48 @@ public class MolangParser<OOMErr extends Throwable> {
 
     private MolangExpr parseSum() throws OOMErr, MolangCompileException {
         MolangExpr res = parseProduct();
-        while (consumeAny("+-", true))
-            res = new FunctionCall(switch (last()) {
+        while (consumeAny("+-", true)) {
+            int op = current - 1;
+            res = node(new FunctionCall(switch (last()) {
                 case "+" -> FloatFunction.ADD_OP;
                 case "-" -> FloatFunction.SUB_OP;
                 default -> throw new IllegalStateException();
-            }, List.of(res, parseProduct()));
+            }, List.of(res, parseProduct())), op);
+        }
         return res;
     }
 
     private MolangExpr parseProduct() throws OOMErr, MolangCompileException {
         MolangExpr res = parseUnary();
-        while (consumeAny("*/%", true))
-            res = new FunctionCall(switch (last()) {
+        while (consumeAny("*/%", true)) {
+            int op = current - 1;
+            res = node(new FunctionCall(switch (last()) {
                 case "*" -> FloatFunction.MUL_OP;
                 case "/" -> FloatFunction.DIV_OP;
                 case "%" -> FloatFunction.MOD_OP;
                 default -> throw new IllegalStateException();
-            }, List.of(res, parseUnary()));
+            }, List.of(res, parseUnary())), op);
+        }
         return res;
     }
 
     private MolangExpr parseUnary() throws OOMErr, MolangCompileException {
-        if (consumeAny("-!", true))
-            return new FunctionCall(switch (last()) {
-                case "-" -> FloatFunction.NEG_OP;
-                case "!" -> throw new UnsupportedOperationException("TODO");
+        if (consumeAny("-!", true)) {
+            int start = current - 1;
+            String op = last();
+            enter();
+            MolangExpr operand = parseUnary();
+            nesting--;
+            return node(switch (op) {
+                case "-" -> new FunctionCall(FloatFunction.NEG_OP, List.of(operand));
+                case "!" -> {
+                    if (operand.isVector())
+                        throw new MolangCompileException(MolangCompileException.LOGICAL_NOT_EXPECTS_SCALAR, source, start, start + 1);
+                    yield new LogicalNot(operand);
+                }
                 default -> throw new IllegalStateException();
-            }, List.of(parseUnary()));
+            }, start);
+        }
         return parseAtom();
     }
 
@@ -166,16 +212,17 @@ public class MolangParser<OOMErr extends Throwable> {
         // Test constants
         for (var constant : constants.entrySet()) {
             if (consume(constant.getKey(), true)) {
-                return switch (constant.getValue().length) {
+                int start = current - constant.getKey().length();
+                return node(switch (constant.getValue().length) {
                     case 0 -> throw new IllegalStateException("Constants must have at least 1 size");
                     case 1 -> new Literal(constant.getValue()[0]);
                     default -> {
                         List<Literal> list = new ArrayList<>(constant.getValue().length);
                         for (int i = 0; i < constant.getValue().length; i++)
                             list.add(new Literal(constant.getValue()[i]));
-                        yield new VectorConstructor(list);
+                        yield checkVectorSize(new VectorConstructor(list));
                     }
-                };
+                }, start);
             }
         }
         if (consume('q', true)) return finishQuery();
@@ -202,7 +249,7 @@ public class MolangParser<OOMErr extends Throwable> {
                     throw new MolangCompileException(MolangCompileException.DIFF_RETURN_SIZES, prevRetCount, retCount, source, pre, current);
                 }
             }
-            return new Return(e);
+            return node(new Return(e), pre);
         }
         throw new MolangCompileException(MolangCompileException.EXPECTED_EXPRESSION, source, current - 1, current);
     }
@@ -217,7 +264,7 @@ public class MolangParser<OOMErr extends Throwable> {
                 foundDot = true;
             }
             if (!consumeDigit(false)) {
-                return new Literal(Float.parseFloat(source.substring(start, current)));
+                return node(new Literal(Float.parseFloat(source.substring(start, current))), start);
             }
         }
     }
@@ -227,11 +274,11 @@ public class MolangParser<OOMErr extends Throwable> {
         int start = current - 5;
         String s = expectIdent();
         int funcNameEnd = current;
-        MolangFunction function = MolangFunction.ALL_MATH_FUNCTIONS.get(s);
+        MolangFunction function = MathFunctions.ALL_MATH_FUNCTIONS.get(s);
         if (function == null) throw new MolangCompileException(MolangCompileException.UNKNOWN_MATH, s, source, start, current);
         List<MolangExpr> args = parseParams();
         function.checkArgs(args, source, start, funcNameEnd);
-        return new FunctionCall(function, args);
+        return node(new FunctionCall(function, args), start);
     }
 
     // "t" was already parsed
@@ -253,19 +300,19 @@ public class MolangParser<OOMErr extends Throwable> {
                 TempVariable existingVar = existing.get();
                 if (existingVar.size != rhs.returnCount())
                     throw new MolangCompileException(MolangCompileException.INCOMPATIBLE_VAR_SIZE, "t." + varName, existingVar.size, rhs.returnCount(), source, equals, equals + 1);
-                return new TempVariableAssign(existingVar, rhs);
+                return node(new TempVariableAssign(existingVar, rhs), start);
             }
             // Otherwise, declare it
             TempVariable newVariable = declareTempVar(varName, rhs.returnCount(), start, equals);
             scopes.peek().tempVars.add(newVariable);
             // Return assignment
-            return new TempVariableAssign(newVariable, rhs);
+            return node(new TempVariableAssign(newVariable, rhs), start);
         } else {
             // If this isn't an assignment, but the var doesn't exist, error
             if (existing.isEmpty())
                 throw new MolangCompileException(MolangCompileException.NONEXISTENT_TEMP_VAR, varName, source, start, current);
             // Return variable
-            return existing.get();
+            return node(existing.get(), start);
         }
     }
 
@@ -281,20 +328,27 @@ public class MolangParser<OOMErr extends Throwable> {
             int countStart = current - 1;
             while (consumeDigit(false));
             String s = source.substring(countStart, current);
-            varSize = Integer.parseInt(s);
+            // Check the length first, so huge sizes don't overflow
+            varSize = s.length() > 9 ? Integer.MAX_VALUE : Integer.parseInt(s);
+            if (varSize > instance.maxVectorSize)
+                throw new MolangCompileException(MolangCompileException.VECTOR_TOO_LARGE, instance.maxVectorSize, varSize, source, countStart, current);
             if (varSize <= 1) throw new MolangCompileException(MolangCompileException.VAR_SIZE_TOO_LOW, source, countStart, current);
             if (!consume('$', false)) throw new MolangCompileException(MolangCompileException.EXPECT_DOLLAR_AFTER_VAR_SIZE, s, source, countStart, current);
         }
         String varName = (varSize == 1 ? expectIdent() : varSize + "$" + expectIdent());
+        // Fixed-size variable storage can run out of room
+        if (instance.getActorVariable(varName) == null && varSize > instance.getMaxActorVariableSlots() - instance.getUsedActorVariableSlots())
+            throw new MolangCompileException(MolangCompileException.ACTOR_VARIABLES_FULL, instance.getMaxActorVariableSlots(), source, start, current);
         ActorVariable variable = instance.getOrCreateActorVariable(varName, varSize); // Get the variable
+        actorVariables.add(varName);
         if (!check("==", true) && consume('=', true)) {
             int equals = current - 1;
             MolangExpr rhs = parse();
             if (rhs.returnCount() != variable.size)
                 throw new MolangCompileException(MolangCompileException.INCOMPATIBLE_VAR_SIZE, "v." + varName, variable.size, rhs.returnCount(), source, equals, equals + 1);
-            return new ActorVariableAssign(variable, parse());
+            return node(new ActorVariableAssign(variable, rhs), start);
         } else {
-            return variable;
+            return node(variable, start);
         }
     }
 
@@ -307,7 +361,7 @@ public class MolangParser<OOMErr extends Throwable> {
         int afterFuncName = current;
         MolangInstance.Query<?, OOMErr> query = instance.getQuery(queryName);
         if (query == null) throw new MolangCompileException(MolangCompileException.UNKNOWN_QUERY, queryName, source, start, current);
-        return query.bind(this, parseParams(), source, start, afterFuncName);
+        return checkVectorSize(node(query.bind(this, parseParams(), source, start, afterFuncName), start));
     }
 
     // "c" was parsed
@@ -318,7 +372,7 @@ public class MolangParser<OOMErr extends Throwable> {
         String contextVarName = expectIdent();
         int varIndex = contextVariables.indexOf(contextVarName);
         if (varIndex == -1) throw new MolangCompileException(MolangCompileException.UNKNOWN_CONTEXT_VAR, contextVarName, source, start, current);
-        return new ContextVariable(contextVarName, varIndex);
+        return node(new ContextVariable(contextVarName, varIndex), start);
     }
 
     // ( was already consumed
@@ -331,10 +385,11 @@ public class MolangParser<OOMErr extends Throwable> {
 
     // { was already consumed
     private MolangExpr finishBlock() throws OOMErr, MolangCompileException {
+        int start = current - 1;
         Compound c = pushScope();
         separatedList(';', '}', true, () -> c.exprs.add(parse()));
         popScope();
-        return c;
+        return node(c, start);
     }
 
     // [ was already consumed
@@ -343,7 +398,7 @@ public class MolangParser<OOMErr extends Throwable> {
         List<MolangExpr> exprs = separatedList(',', ']', true, this::parse);
         if (exprs.size() <= 1)
             throw new MolangCompileException(MolangCompileException.VECTOR_CONSTRUCTOR_EXPECTS_TWO_ARGS, source, start, current);
-        return new VectorConstructor(exprs);
+        return checkVectorSize(node(new VectorConstructor(exprs), start));
     }
 
     // ------------------
@@ -370,6 +425,69 @@ public class MolangParser<OOMErr extends Throwable> {
         }
     }
 
+    // -----------
+    // | BUDGETS |
+    // -----------
+
+    // Count a newly created node against the instance's budgets, and record where in the source it starts.
+    // Its children should have been counted already; any which weren't are counted by depthOf().
+    // Queries call this on the nodes they build out of their args, with funcNameStart, so large expansions fail early.
+    public <T extends MolangExpr> T node(T expr, int start) throws MolangCompileException {
+        positions.putIfAbsent(expr, start); // Variables are reused, keep their first position
+        countNode();
+        if (depthOf(expr) > instance.maxDepth)
+            throw new MolangCompileException(MolangCompileException.NESTING_TOO_DEEP, instance.maxDepth, source, current - 1, current);
+        return expr;
+    }
+
+    private void countNode() throws MolangCompileException {
+        if (++nodes > instance.maxNodes)
+            throw new MolangCompileException(MolangCompileException.TOO_MANY_NODES, instance.maxNodes, source, current - 1, current);
+    }
+
+    // Count a level of parser recursion, see MolangInstance.maxNesting. Decrement nesting after returning.
+    private void enter() throws MolangCompileException {
+        if (++nesting > instance.maxNesting)
+            throw new MolangCompileException(MolangCompileException.NESTING_TOO_DEEP, instance.maxNesting, source, current - 1, current);
+    }
+
+    // Height of the expr's tree. Chains like 1+1+1+... nest without recursing in the parser, but later passes
+    // recurse over the tree, so this is limited too. Computed with a loop rather than recursion, since it runs before
+    // the limit is known to hold. Descendants seen for the first time, like nodes a query built without node(),
+    // are counted against maxNodes here.
+    private int depthOf(MolangExpr expr) throws MolangCompileException {
+        ArrayDeque<MolangExpr> pending = new ArrayDeque<>();
+        pending.push(expr);
+        while (!pending.isEmpty()) {
+            MolangExpr next = pending.peek();
+            if (depths.containsKey(next)) {
+                pending.pop();
+                continue;
+            }
+            int depth = 1;
+            boolean ready = true;
+            for (MolangExpr child : next.children()) {
+                Integer known = depths.get(child);
+                if (known == null) {
+                    pending.push(child);
+                    ready = false;
+                } else depth = Math.max(depth, known + 1);
+            }
+            if (ready) {
+                pending.pop();
+                depths.put(next, depth);
+                if (next != expr) countNode();
+            }
+        }
+        return depths.get(expr);
+    }
+
+    private MolangExpr checkVectorSize(MolangExpr expr) throws MolangCompileException {
+        if (expr.returnCount() > instance.maxVectorSize)
+            throw new MolangCompileException(MolangCompileException.VECTOR_TOO_LARGE, instance.maxVectorSize, expr.returnCount(), source, current - 1, current);
+        return expr;
+    }
+
     // -------------------
     // | EXPOSED HELPERS |
     // -------------------
@@ -392,6 +510,7 @@ public class MolangParser<OOMErr extends Throwable> {
         // Add it to scope. Find the next unused index:
         int nextIndex = scopes.reversed().stream().map(x -> x.tempVars).map(List::reversed).flatMap(List::stream).filter(v -> v.isVector() == (size != 1)).findFirst().map(it -> it.getLogicalLocation() + it.size).orElse(0);
         if (size == 1) maxLocalVariables = Math.max(maxLocalVariables, nextIndex + 1);
+        else maxArraySlots = Math.max(maxArraySlots, nextIndex + size);
         return new TempVariable(name, size, nextIndex);
     }
 
@@ -449,7 +568,8 @@ public class MolangParser<OOMErr extends Throwable> {
 
     private String expectIdent() throws MolangCompileException {
         int start = current;
-        while (consumeIdentChar(false));
+        // Digits are allowed after the first char, like in atan2
+        while (consumeIdentChar(false) || current > start && consumeDigit(false));
         if (start == current) throw new MolangCompileException(MolangCompileException.EXPECTED_NAME, source, current - 1, current);
         return source.substring(start, current);
     }
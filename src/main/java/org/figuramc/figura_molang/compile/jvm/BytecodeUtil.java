@@ -84,16 +84,39 @@ public class BytecodeUtil {
         else methodVisitor.visitLdcInsn(value);
     }
 
-    // For testing if two are equal, pass IFNE, etc.
-    public static void compareFloats(MethodVisitor methodVisitor, int jumpOpcodeOpposite) {
-        int cmpOpcode = switch (jumpOpcodeOpposite) {
-            case Opcodes.IFNE, Opcodes.IFEQ, Opcodes.IFLE, Opcodes.IFLT -> Opcodes.FCMPL;
-            case Opcodes.IFGE, Opcodes.IFGT -> Opcodes.FCMPG;
+    // A float is on top of the stack. Jump to target if its truthiness (nonzero) equals jumpIfTrue, popping it either way.
+    public static void jumpOnCondition(MethodVisitor methodVisitor, Label target, boolean jumpIfTrue) {
+        methodVisitor.visitInsn(Opcodes.FCONST_0);
+        methodVisitor.visitInsn(Opcodes.FCMPL);
+        methodVisitor.visitJumpInsn(jumpIfTrue ? Opcodes.IFNE : Opcodes.IFEQ, target);
+    }
+
+    // A float is on top of the stack. Replace it with the int 1 if it's truthy (nonzero), or 0 otherwise, without branching.
+    public static void conditionToInt(MethodVisitor methodVisitor) {
+        methodVisitor.visitInsn(Opcodes.FCONST_0);
+        methodVisitor.visitInsn(Opcodes.FCMPL);
+        compareResultToInt(methodVisitor, Opcodes.IFEQ);
+    }
+
+    // Get the jump opcode which is taken exactly when the given one isn't.
+    // Since FCMPL/FCMPG always produce -1, 0, or 1, this also holds after a float comparison involving NaN.
+    public static int invertJump(int jumpOpcode) {
+        return switch (jumpOpcode) {
+            case Opcodes.IFEQ -> Opcodes.IFNE;
+            case Opcodes.IFNE -> Opcodes.IFEQ;
+            case Opcodes.IFLT -> Opcodes.IFGE;
+            case Opcodes.IFGE -> Opcodes.IFLT;
+            case Opcodes.IFGT -> Opcodes.IFLE;
+            case Opcodes.IFLE -> Opcodes.IFGT;
             default -> throw new IllegalArgumentException();
         };
+    }
+
+    // For testing if two are equal, pass IFNE, etc.
+    public static void compareFloats(MethodVisitor methodVisitor, int jumpOpcodeOpposite) {
         Label fail = new Label();
         Label end = new Label();
-        methodVisitor.visitInsn(cmpOpcode);
+        methodVisitor.visitInsn(compareOpcode(jumpOpcodeOpposite));
         methodVisitor.visitJumpInsn(jumpOpcodeOpposite, fail);
         methodVisitor.visitInsn(Opcodes.FCONST_1);
         methodVisitor.visitJumpInsn(Opcodes.GOTO, end);
@@ -102,4 +125,49 @@ public class BytecodeUtil {
         methodVisitor.visitLabel(end);
     }
 
+    // Like compareFloats(), but pushes 1 or 0 without branching, for MolangInstance.branchless
+    public static void compareFloatsBranchless(MethodVisitor methodVisitor, int jumpOpcodeOpposite) {
+        methodVisitor.visitInsn(compareOpcode(jumpOpcodeOpposite));
+        compareResultToInt(methodVisitor, jumpOpcodeOpposite);
+        methodVisitor.visitInsn(Opcodes.I2F);
+    }
+
+    // The FCMPL or FCMPG for a comparison, picked so NaN makes the jump which means it failed
+    private static int compareOpcode(int jumpOpcodeOpposite) {
+        return switch (jumpOpcodeOpposite) {
+            case Opcodes.IFNE, Opcodes.IFEQ, Opcodes.IFLE, Opcodes.IFLT -> Opcodes.FCMPL;
+            case Opcodes.IFGE, Opcodes.IFGT -> Opcodes.FCMPG;
+            default -> throw new IllegalArgumentException();
+        };
+    }
+
+    // The int result of an FCMPL/FCMPG (-1, 0, or 1) is on the stack.
+    // Replace it with 1 if failJumpOpcode would not be taken, or 0 if it would, using bit tricks instead of branches.
+    public static void compareResultToInt(MethodVisitor methodVisitor, int failJumpOpcode) {
+        switch (failJumpOpcode) {
+            case Opcodes.IFNE, Opcodes.IFEQ -> {
+                // c != 0 is the low bit, since -1 is all ones
+                constInt(methodVisitor, 1);
+                methodVisitor.visitInsn(Opcodes.IAND);
+            }
+            case Opcodes.IFGE, Opcodes.IFLT -> {
+                // c < 0 is the sign bit
+                constInt(methodVisitor, 31);
+                methodVisitor.visitInsn(Opcodes.IUSHR);
+            }
+            case Opcodes.IFLE, Opcodes.IFGT -> {
+                // c > 0 is the sign bit of -c
+                methodVisitor.visitInsn(Opcodes.INEG);
+                constInt(methodVisitor, 31);
+                methodVisitor.visitInsn(Opcodes.IUSHR);
+            }
+            default -> throw new IllegalArgumentException();
+        }
+        // Above computed the failure condition itself for IFNE, IFLT, and IFGT, so flip those
+        if (failJumpOpcode == Opcodes.IFNE || failJumpOpcode == Opcodes.IFLT || failJumpOpcode == Opcodes.IFGT) {
+            constInt(methodVisitor, 1);
+            methodVisitor.visitInsn(Opcodes.IXOR);
+        }
+    }
+
 }
@@ -0,0 +1,98 @@
+package org.figuramc.figura_molang.compile.jvm;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.*;
+
+/**
+ * Counts how many bytes of code are emitted through it, passing everything on to the delegate (if any).
+ * The count assumes the short forms of instructions where they exist, and constant pool indices that fit in a byte,
+ * so it may be slightly off; it's meant for heuristics, like the JIT's method size limits.
+ */
+public class CodeSizeCounter extends MethodVisitor {
+
+    public int size;
+
+    public CodeSizeCounter(@Nullable MethodVisitor delegate) {
+        super(Opcodes.ASM9, delegate);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        size += 1;
+        super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        size += opcode == Opcodes.SIPUSH ? 3 : 2;
+        super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int varIndex) {
+        // xLOAD_n/xSTORE_n for the first 4, one byte index below 256, WIDE beyond that
+        size += varIndex <= 3 ? 1 : varIndex < 256 ? 2 : 4;
+        super.visitVarInsn(opcode, varIndex);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        size += 3;
+        super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        size += 3;
+        super.visitFieldInsn(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        size += opcode == Opcodes.INVOKEINTERFACE ? 5 : 3;
+        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        size += 5;
+        super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        size += 3;
+        super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        size += value instanceof Long || value instanceof Double ? 3 : 2;
+        super.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitIincInsn(int varIndex, int increment) {
+        size += varIndex < 256 && increment == (byte) increment ? 3 : 6;
+        super.visitIincInsn(varIndex, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        size += 16 + 4 * labels.length; // Worst case padding
+        super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        size += 12 + 8 * labels.length;
+        super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+        size += 4;
+        super.visitMultiANewArrayInsn(descriptor, numDimensions);
+    }
+
+}
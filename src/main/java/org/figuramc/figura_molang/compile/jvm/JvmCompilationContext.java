@@ -1,6 +1,12 @@
 package org.figuramc.figura_molang.compile.jvm;
 
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.MolangInstance;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
 import java.util.Stack;
 
@@ -9,8 +15,20 @@ import java.util.Stack;
  */
 public class JvmCompilationContext {
 
+    // The instance we're compiling for, whose options may affect code generation
+    public final MolangInstance<?, ?> instance;
+    // Splits large expressions into helper methods, or null if this expression doesn't need it
+    public final @Nullable MethodSplitter splitter;
+    // If non-null, literals are read from the CompiledMolang's constants array, at the slots this assigns
+    public final @Nullable LiteralTable literals;
+    // If non-null, emits line numbers mapping code back to the source
+    public final @Nullable SourceMap sourceMap;
+    // If non-null, code records an ExecutionProfile or is specialized to one (see MolangInstance.profileGuided)
+    public final @Nullable Speculation speculation;
     // Index of the float[] variable used as temp stack space
     public final int arrayVariableIndex;
+    // Where vector temp variables start in the float[]. The result of the expression goes before them, at 0.
+    public final int vectorVariableStart;
 
     private final Stack<Integer> nextLocal = new Stack<>();
     private final Stack<Integer> nextArraySlot = new Stack<>();
@@ -20,8 +38,14 @@ public class JvmCompilationContext {
 
     private int maxLocals, maxArraySlots;
 
-    public JvmCompilationContext(int arrayVariableIndex, int firstUnusedLocal, int firstUnusedArraySlot) {
+    public JvmCompilationContext(MolangInstance<?, ?> instance, @Nullable MethodSplitter splitter, @Nullable LiteralTable literals, @Nullable SourceMap sourceMap, @Nullable Speculation speculation, int arrayVariableIndex, int firstUnusedLocal, int vectorVariableStart, int firstUnusedArraySlot) {
+        this.instance = instance;
+        this.splitter = splitter;
+        this.literals = literals;
+        this.sourceMap = sourceMap;
+        this.speculation = speculation;
         this.arrayVariableIndex = arrayVariableIndex;
+        this.vectorVariableStart = vectorVariableStart;
         this.nextLocal.push(firstUnusedLocal);
         this.nextArraySlot.push(firstUnusedArraySlot);
         this.returnLabel.push(null);
@@ -30,6 +54,15 @@ public class JvmCompilationContext {
         maxArraySlots = Math.max(firstUnusedArraySlot, 1);
     }
 
+    // If the instance compiles with fuel metering, emit code charging this much fuel. Otherwise, emit nothing.
+    public void chargeFuel(MethodVisitor visitor, int amount) {
+        if (!instance.fuelMetering) return;
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+        BytecodeUtil.constInt(visitor, amount);
+        visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MolangInstance.class), "consumeFuel", "(I)V", false);
+    }
+
     public void push() {
         push(returnLabel.peek(), returnArraySlot.peek());
     }
@@ -62,6 +95,15 @@ public class JvmCompilationContext {
         return i;
     }
 
+    // Make sure at least this many array slots are counted as used
+    public void reserveArraySlotsUpTo(int count) {
+        maxArraySlots = Math.max(maxArraySlots, count);
+    }
+
+    public int getNextArraySlot() {
+        return nextArraySlot.peek();
+    }
+
     public Label getReturnLabel() {
         return returnLabel.peek();
     }
@@ -70,6 +112,10 @@ public class JvmCompilationContext {
         return returnArraySlot.peek();
     }
 
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
     public int getMaxArraySlots() {
         return maxArraySlots;
     }
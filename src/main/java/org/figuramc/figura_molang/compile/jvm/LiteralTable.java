@@ -0,0 +1,30 @@
+package org.figuramc.figura_molang.compile.jvm;
+
+import org.figuramc.figura_molang.ast.Literal;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * When literals are lifted, generated code reads them from the CompiledMolang's constants array instead of
+ * embedding them in the bytecode. Expressions that only differ in their literals then generate identical classes.
+ * Each Literal node gets a slot the first time it's compiled; since compilation visits the tree in a fixed order,
+ * the same shape of expression always assigns the same slots.
+ */
+public class LiteralTable {
+
+    private final Map<Literal, Integer> slots = new IdentityHashMap<>();
+
+    // Get the slot for this literal, assigning the next one if it doesn't have one yet
+    public int slotOf(Literal literal) {
+        return slots.computeIfAbsent(literal, l -> slots.size());
+    }
+
+    // The values of the literals, indexed by slot
+    public float[] values() {
+        float[] res = new float[slots.size()];
+        slots.forEach((literal, slot) -> res[slot] = literal.value);
+        return res;
+    }
+
+}
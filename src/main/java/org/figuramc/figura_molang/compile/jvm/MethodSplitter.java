@@ -0,0 +1,337 @@
+package org.figuramc.figura_molang.compile.jvm;
+
+import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.control_flow.Compound;
+import org.figuramc.figura_molang.ast.control_flow.Return;
+import org.figuramc.figura_molang.ast.control_flow.StatementGroup;
+import org.figuramc.figura_molang.ast.vars.TempVariable;
+import org.figuramc.figura_molang.ast.vars.TempVariableAssign;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+
+/**
+ * Outlines subtrees of large expressions into private helper methods, so no single method gets too big.
+ * HotSpot refuses to JIT methods over 8000 bytes of bytecode (HugeMethodLimit), and the class file format
+ * doesn't allow methods over 64KB at all. Helpers near FreqInlineSize can still be inlined back by the JIT when hot.
+ *
+ * Helpers have the same local variable layout as evaluateImpl: (this, context variables, temp float[], scalar temp variables),
+ * so the outlined code compiles exactly as it would have inline. Values are passed in, and the helper returns a float,
+ * or writes its vector result into the temp float[] like usual. Scalar temp variables from outside which the helper
+ * assigns are written back through the temp float[], and the caller loads them back into its locals after the call.
+ * A subtree can't be outlined if it has a Return out of a Compound outside it, since it can't jump there.
+ *
+ * With a Speculation, the cold sides of biased branches are outlined too, whatever the size, so the hot path stays compact.
+ *
+ * Usage: measure() the expression, and if it's too large, plan() and then compile with this in the context.
+ * Compiling queues helpers, which are emitted with emitHelpers() once the main method's code is done.
+ */
+public class MethodSplitter {
+
+    // Roughly HotSpot's FreqInlineSize, the largest method it will inline when hot
+    public static final int HELPER_TARGET_SIZE = 325;
+    // Don't bother outlining code unless it saves at least this many bytes over the call
+    private static final int MIN_SAVED_SIZE = 32;
+
+    private final MolangInstance<?, ?> instance;
+    private final String className;
+    private final @Nullable LiteralTable literals;
+    private final @Nullable SourceMap sourceMap;
+    private final @Nullable Speculation speculation;
+    private final int arrayVariableIndex;
+    private final int firstUnusedLocal;
+    private final int vectorVariableStart;
+    private final int firstUnusedArraySlot;
+    private final String helperParams; // Descriptor of the helper parameters, without parentheses
+    private final int callSize; // Bytes needed to call a helper
+
+    private boolean measuring = false;
+    // Whether to outline by size, and exprs to outline anyway when worthwhile
+    private boolean splitLarge = true;
+    private Set<MolangExpr> cold = Set.of();
+    private final Map<MolangExpr, Integer> sizes = new IdentityHashMap<>();
+    // Outlined exprs, and the scalar temp variables declared outside them which they assign
+    private final Map<MolangExpr, List<TempVariable>> outlined = new IdentityHashMap<>();
+
+    private final ArrayDeque<PendingHelper> pendingHelpers = new ArrayDeque<>();
+    private @Nullable MolangExpr helperRoot; // The expr whose helper is being compiled, which of course shouldn't call itself
+    private int helperCount;
+    private int helperCodeSize;
+    private int largestHelperSize;
+
+    private record PendingHelper(MolangExpr expr, String name, String descriptor, int outputArrayIndex, List<TempVariable> writeBack, int writeBackSlot, int firstArraySlot) {}
+
+    // Locals below firstUnusedLocal are the ones helpers take as parameters
+    public MethodSplitter(MolangInstance<?, ?> instance, String className, @Nullable LiteralTable literals, @Nullable SourceMap sourceMap, @Nullable Speculation speculation, int arrayVariableIndex, int firstUnusedLocal, int vectorVariableStart, int firstUnusedArraySlot) {
+        this.instance = instance;
+        this.className = className;
+        this.literals = literals;
+        this.sourceMap = sourceMap;
+        this.speculation = speculation;
+        this.arrayVariableIndex = arrayVariableIndex;
+        this.firstUnusedLocal = firstUnusedLocal;
+        this.vectorVariableStart = vectorVariableStart;
+        this.firstUnusedArraySlot = firstUnusedArraySlot;
+        this.helperParams = "F".repeat(arrayVariableIndex - 1) + "[F" + "F".repeat(firstUnusedLocal - arrayVariableIndex - 1);
+        int size = 1 + 3; // ALOAD_0, INVOKESPECIAL
+        for (int i = 1; i < firstUnusedLocal; i++)
+            size += i <= 3 ? 1 : 2;
+        this.callSize = size;
+    }
+
+    // Compile the expression without emitting anything, recording the code size of every subtree.
+    // Returns the total size.
+    public int measure(MolangExpr expr) {
+        CodeSizeCounter counter = new CodeSizeCounter(null);
+        JvmCompilationContext context = new JvmCompilationContext(instance, this, literals, null, speculation, arrayVariableIndex, firstUnusedLocal, vectorVariableStart, firstUnusedArraySlot);
+        measuring = true;
+        expr.compileToJvmBytecode(counter, context.reserveArraySlots(expr.returnCount()), context);
+        measuring = false;
+        return counter.size;
+    }
+
+    // Called by MolangExpr around its compilation, to record its size while measuring
+    public void measure(MolangExpr expr, MethodVisitor visitor, Runnable compile) {
+        if (measuring && visitor instanceof CodeSizeCounter counter) {
+            int before = counter.size;
+            compile.run();
+            sizes.merge(expr, counter.size - before, Math::max);
+        } else {
+            compile.run();
+        }
+    }
+
+    // Choose subtrees to outline, bottom-up, until each method is near the target size if possible.
+    // May group the statements of long Compounds into StatementGroups. Returns whether anything was outlined.
+    public boolean plan(MolangExpr expr) {
+        return plan(expr, true, Set.of());
+    }
+
+    // Like plan(), but only outlines by size if splitLarge, and also outlines the cold exprs where that saves enough
+    public boolean plan(MolangExpr expr, boolean splitLarge, Set<MolangExpr> cold) {
+        // Methods can only have 255 parameter slots, including this
+        if (firstUnusedLocal > 255) return false;
+        this.splitLarge = splitLarge;
+        this.cold = cold;
+        visit(expr);
+        return !outlined.isEmpty();
+    }
+
+    public boolean isOutlined(MolangExpr expr) {
+        return expr != helperRoot && outlined.containsKey(expr);
+    }
+
+    // What we know about a subtree while planning.
+    // size: Its code size, after outlining parts of it.
+    // escapes: Whether it has a Return which jumps outside it.
+    // freeWrites: Scalar temp variables which it assigns, but which are declared outside it.
+    private record Info(int size, boolean escapes, Set<TempVariable> freeWrites) {
+        boolean canOutline(MolangExpr expr) {
+            return !escapes && !(expr instanceof Return);
+        }
+    }
+
+    // Bytes needed to call the helper for this subtree
+    private int callSize(Info info) {
+        // ALOAD, constant, FALOAD, FSTORE for each variable written back
+        return callSize + info.freeWrites.size() * 6;
+    }
+
+    private void outline(MolangExpr expr, Info info) {
+        outlined.put(expr, List.copyOf(info.freeWrites));
+    }
+
+    private Info visit(MolangExpr expr) {
+        List<MolangExpr> children = expr.children();
+        List<Info> infos = new ArrayList<>(children.size());
+        int childSizes = 0;
+        int size = 0;
+        boolean escapes = expr instanceof Return;
+        Set<TempVariable> freeWrites = new HashSet<>();
+        for (MolangExpr child : children) {
+            Info info = visit(child);
+            infos.add(info);
+            childSizes += sizes.getOrDefault(child, 0);
+            size += outlined.containsKey(child) ? callSize(info) : info.size;
+            escapes |= info.escapes;
+            freeWrites.addAll(info.freeWrites);
+        }
+        // Add the code belonging to this expr itself
+        size += Math.max(0, sizes.getOrDefault(expr, 0) - childSizes);
+        if (expr instanceof TempVariableAssign assign && !assign.variable.isVector())
+            freeWrites.add(assign.variable);
+        if (expr instanceof Compound compound) {
+            // Returns inside only leave the compound, and its own variables aren't visible outside
+            escapes = false;
+            compound.tempVars.forEach(freeWrites::remove);
+        }
+
+        // Cold code only gets in the way of the hot path
+        for (int i = 0; i < children.size(); i++) {
+            MolangExpr child = children.get(i);
+            Info info = infos.get(i);
+            if (cold.contains(child) && !outlined.containsKey(child) && info.size - callSize(info) >= MIN_SAVED_SIZE && info.canOutline(child)) {
+                outline(child, info);
+                size -= info.size - callSize(info);
+            }
+        }
+
+        if (splitLarge && size > HELPER_TARGET_SIZE) {
+            // Too big, so outline the biggest children first
+            Integer[] order = new Integer[children.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingInt(i -> -infos.get(i).size));
+            for (int i : order) {
+                if (size <= HELPER_TARGET_SIZE) break;
+                MolangExpr child = children.get(i);
+                Info info = infos.get(i);
+                if (!outlined.containsKey(child) && info.size - callSize(info) >= MIN_SAVED_SIZE && info.canOutline(child)) {
+                    outline(child, info);
+                    size -= info.size - callSize(info);
+                }
+            }
+            // Long compounds may be made of many small statements, so group those up, then group the groups if needed
+            if (expr instanceof Compound compound) {
+                while (size > HELPER_TARGET_SIZE) {
+                    int statementCount = compound.exprs.size();
+                    size = groupStatements(compound, infos, size);
+                    if (compound.exprs.size() == statementCount) break;
+                }
+            }
+        }
+        return new Info(size, escapes, freeWrites);
+    }
+
+    // Replace runs of outlinable statements with outlined StatementGroups of about the target size.
+    // Updates the infos to match the new statements, and returns the new size of the compound.
+    private int groupStatements(Compound compound, List<Info> infos, int size) {
+        List<MolangExpr> result = new ArrayList<>();
+        List<Info> resultInfos = new ArrayList<>();
+        List<MolangExpr> run = new ArrayList<>();
+        List<Info> runInfos = new ArrayList<>();
+        Set<TempVariable> runWrites = new HashSet<>();
+        int runSize = 0;
+        for (int i = 0; i < compound.exprs.size(); i++) {
+            MolangExpr statement = compound.exprs.get(i);
+            Info info = infos.get(i);
+            int statementSize = (outlined.containsKey(statement) ? callSize(info) : info.size) + 1; // Plus the POP
+            if (!info.canOutline(statement) || runSize + statementSize > HELPER_TARGET_SIZE) {
+                size -= flushGroup(run, runInfos, new Info(runSize, false, runWrites), result, resultInfos);
+                run = new ArrayList<>();
+                runInfos = new ArrayList<>();
+                runWrites = new HashSet<>();
+                runSize = 0;
+            }
+            if (!info.canOutline(statement)) {
+                result.add(statement);
+                resultInfos.add(info);
+                continue;
+            }
+            run.add(statement);
+            runInfos.add(info);
+            runWrites.addAll(info.freeWrites);
+            runSize += statementSize;
+        }
+        size -= flushGroup(run, runInfos, new Info(runSize, false, runWrites), result, resultInfos);
+        compound.exprs.clear();
+        compound.exprs.addAll(result);
+        infos.clear();
+        infos.addAll(resultInfos);
+        return size;
+    }
+
+    // Add the run to the result, as an outlined group if worthwhile. Returns how many bytes that saved.
+    private int flushGroup(List<MolangExpr> run, List<Info> runInfos, Info info, List<MolangExpr> result, List<Info> resultInfos) {
+        if (run.size() < 2 || info.size - callSize(info) < MIN_SAVED_SIZE) {
+            result.addAll(run);
+            resultInfos.addAll(runInfos);
+            return 0;
+        }
+        StatementGroup group = new StatementGroup(run);
+        sizes.put(group, info.size + 1);
+        outline(group, info);
+        result.add(group);
+        resultInfos.add(info);
+        return info.size - callSize(info);
+    }
+
+    // Emit a call to a helper method for this outlined expr, and queue the helper to be emitted later
+    public void callHelper(MolangExpr expr, MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        String name = "helper$" + helperCount++;
+        String descriptor = "(" + helperParams + ")" + (expr.isVector() ? "V" : "F");
+        List<TempVariable> writeBack = outlined.get(expr);
+        // Reserve slots to pass back assigned variables, which the helper's own temporaries go after
+        context.push();
+        int writeBackSlot = context.reserveArraySlots(writeBack.size());
+        pendingHelpers.add(new PendingHelper(expr, name, descriptor, outputArrayIndex, writeBack, writeBackSlot, context.getNextArraySlot()));
+        context.pop();
+        // Pass all the locals along
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        for (int i = 1; i < firstUnusedLocal; i++)
+            visitor.visitVarInsn(i == arrayVariableIndex ? Opcodes.ALOAD : Opcodes.FLOAD, i);
+        visitor.visitMethodInsn(Opcodes.INVOKESPECIAL, className, name, descriptor, false);
+        // Load the assigned variables back
+        for (int i = 0; i < writeBack.size(); i++) {
+            visitor.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+            BytecodeUtil.constInt(visitor, writeBackSlot + i);
+            visitor.visitInsn(Opcodes.FALOAD);
+            visitor.visitVarInsn(Opcodes.FSTORE, writeBack.get(i).getRealLocation(context));
+        }
+    }
+
+    // Helpers read all the scalar temp variables, so they need to be definitely assigned before any call.
+    // Call at the start of the main method.
+    public void initializeTempVariables(MethodVisitor visitor) {
+        for (int i = arrayVariableIndex + 1; i < firstUnusedLocal; i++) {
+            visitor.visitInsn(Opcodes.FCONST_0);
+            visitor.visitVarInsn(Opcodes.FSTORE, i);
+        }
+    }
+
+    // Emit all queued helpers, including any which those queue in turn.
+    // Returns the number of temp array slots they need.
+    public int emitHelpers(ClassVisitor classVisitor) {
+        int maxArraySlots = 0;
+        while (!pendingHelpers.isEmpty()) {
+            PendingHelper helper = pendingHelpers.poll();
+            CodeSizeCounter method = new CodeSizeCounter(classVisitor.visitMethod(Opcodes.ACC_PRIVATE, helper.name, helper.descriptor, null, null));
+            method.visitCode();
+            // Array slots in use at the call site stay reserved
+            JvmCompilationContext context = new JvmCompilationContext(instance, this, literals, sourceMap, speculation, arrayVariableIndex, firstUnusedLocal, vectorVariableStart, helper.firstArraySlot);
+            helperRoot = helper.expr;
+            helper.expr.compileToJvmBytecode(method, helper.outputArrayIndex, context);
+            helperRoot = null;
+            // Write back assigned variables for the caller
+            for (int i = 0; i < helper.writeBack.size(); i++) {
+                method.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+                BytecodeUtil.constInt(method, helper.writeBackSlot + i);
+                method.visitVarInsn(Opcodes.FLOAD, helper.writeBack.get(i).getRealLocation(context));
+                method.visitInsn(Opcodes.FASTORE);
+            }
+            method.visitInsn(helper.expr.isVector() ? Opcodes.RETURN : Opcodes.FRETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+            helperCodeSize += method.size;
+            largestHelperSize = Math.max(largestHelperSize, method.size);
+            maxArraySlots = Math.max(maxArraySlots, context.getMaxArraySlots());
+        }
+        return maxArraySlots;
+    }
+
+    public int getHelperCount() {
+        return helperCount;
+    }
+
+    public int getHelperCodeSize() {
+        return helperCodeSize;
+    }
+
+    public int getLargestHelperSize() {
+        return largestHelperSize;
+    }
+
+}
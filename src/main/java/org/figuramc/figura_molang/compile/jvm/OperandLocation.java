@@ -0,0 +1,221 @@
+package org.figuramc.figura_molang.compile.jvm;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where the value of an operand lives while compiled code reads it element by element.
+ * Variables already have a location, so consumers which only need element reads can use it in place,
+ * instead of copying the variable into scratch space first. Other exprs get compiled into scratch space.
+ */
+public sealed interface OperandLocation {
+
+    // Push element <counterLocal> of this operand, where counterLocal is an int local.
+    // Scalars push their single value regardless of the counter.
+    void loadElement(MethodVisitor visitor, JvmCompilationContext context, int counterLocal);
+
+    // A scalar in a float local variable
+    record Local(int index) implements OperandLocation {
+        @Override
+        public void loadElement(MethodVisitor visitor, JvmCompilationContext context, int counterLocal) {
+            visitor.visitVarInsn(Opcodes.FLOAD, index);
+        }
+    }
+
+    // A run of values in some float[], starting at offset. These can also be written to.
+    sealed interface ArrayLocation extends OperandLocation {
+        int offset();
+        // Push the float[] this location refers to
+        void loadArray(MethodVisitor visitor, JvmCompilationContext context);
+        // Push the index in that float[] of element <elements> of this location
+        default void loadIndex(MethodVisitor visitor, JvmCompilationContext context, int elements) {
+            BytecodeUtil.constInt(visitor, offset() + elements);
+        }
+        // Whether loadArray() pushes a FloatBuffer instead of a float[]
+        default boolean isBuffer(JvmCompilationContext context) {
+            return false;
+        }
+        // Like FALOAD: [array, index] -> [value]
+        default void loadInsn(MethodVisitor visitor, JvmCompilationContext context) {
+            if (isBuffer(context)) visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BUFFER, "get", "(I)F", false);
+            else visitor.visitInsn(Opcodes.FALOAD);
+        }
+        // Like FASTORE: [array, index, value] -> []
+        default void storeInsn(MethodVisitor visitor, JvmCompilationContext context) {
+            if (isBuffer(context)) {
+                visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BUFFER, "put", "(IF)" + BUFFER_DESCRIPTOR, false);
+                visitor.visitInsn(Opcodes.POP);
+            } else visitor.visitInsn(Opcodes.FASTORE);
+        }
+        // The location this many elements further along
+        ArrayLocation plus(int elements);
+
+        @Override
+        default void loadElement(MethodVisitor visitor, JvmCompilationContext context, int counterLocal) {
+            loadArray(visitor, context); // [arr]
+            loadIndex(visitor, context, 0); // [arr, offset]
+            visitor.visitVarInsn(Opcodes.ILOAD, counterLocal); // [arr, offset, counter]
+            visitor.visitInsn(Opcodes.IADD); // [arr, offset + counter]
+            loadInsn(visitor, context); // [arr[offset + counter]]
+        }
+    }
+
+    // Values in the temp float[], at local context.arrayVariableIndex
+    record TempArray(int offset) implements ArrayLocation {
+        @Override
+        public void loadArray(MethodVisitor visitor, JvmCompilationContext context) {
+            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+        }
+        @Override
+        public ArrayLocation plus(int elements) {
+            return new TempArray(offset + elements);
+        }
+    }
+
+    // Values in the instance's actorVariables, or its actorVariableBuffer if it has one
+    record ActorArray(int offset) implements ArrayLocation {
+        @Override
+        public void loadArray(MethodVisitor visitor, JvmCompilationContext context) {
+            visitor.visitVarInsn(Opcodes.ALOAD, 0);
+            visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+            if (isBuffer(context))
+                visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actorVariableBuffer", BUFFER_DESCRIPTOR);
+            else
+                visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actorVariables", "[F");
+        }
+        @Override
+        public boolean isBuffer(JvmCompilationContext context) {
+            return context.instance.actorVariableBuffer != null;
+        }
+        // With an ActorVariableBank, offsets are from the selected actor's variables
+        @Override
+        public void loadIndex(MethodVisitor visitor, JvmCompilationContext context, int elements) {
+            BytecodeUtil.constInt(visitor, offset + elements);
+            if (context.instance.getActorVariableBank() != null) {
+                visitor.visitVarInsn(Opcodes.ALOAD, 0);
+                visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+                visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actorVariableBase", "I");
+                visitor.visitInsn(Opcodes.IADD);
+            }
+        }
+        @Override
+        public ArrayLocation plus(int elements) {
+            return new ActorArray(offset + elements);
+        }
+    }
+
+    // Values in a FloatBuffer in local bufferLocal, from the int in local offsetLocal on. Used for evaluateIntoImpl's output.
+    record OutputBuffer(int offset, int bufferLocal, int offsetLocal) implements ArrayLocation {
+        @Override
+        public void loadArray(MethodVisitor visitor, JvmCompilationContext context) {
+            visitor.visitVarInsn(Opcodes.ALOAD, bufferLocal);
+        }
+        @Override
+        public void loadIndex(MethodVisitor visitor, JvmCompilationContext context, int elements) {
+            visitor.visitVarInsn(Opcodes.ILOAD, offsetLocal);
+            if (offset + elements != 0) {
+                BytecodeUtil.constInt(visitor, offset + elements);
+                visitor.visitInsn(Opcodes.IADD);
+            }
+        }
+        @Override
+        public boolean isBuffer(JvmCompilationContext context) {
+            return true;
+        }
+        @Override
+        public ArrayLocation plus(int elements) {
+            return new OutputBuffer(offset + elements, bufferLocal, offsetLocal);
+        }
+    }
+
+    String BUFFER = Type.getInternalName(FloatBuffer.class);
+    String BUFFER_DESCRIPTOR = Type.getDescriptor(FloatBuffer.class);
+    // Copies to or from buffers up to this long are unrolled
+    int UNROLLED_BUFFER_COPY = 8;
+
+    // Copy size elements from one array location to another
+    static void copy(MethodVisitor visitor, JvmCompilationContext context, ArrayLocation src, ArrayLocation dst, int size) {
+        if (src.equals(dst)) return; // Already there
+        if ((src.isBuffer(context) || dst.isBuffer(context)) && size <= UNROLLED_BUFFER_COPY) {
+            // Bulk buffer copies have a lot of overhead for short vectors, so copy element by element
+            for (int i = 0; i < size; i++) {
+                dst.loadArray(visitor, context); // [dst]
+                dst.loadIndex(visitor, context, i); // [dst, dstPos + i]
+                src.loadArray(visitor, context); // [dst, dstPos + i, src]
+                src.loadIndex(visitor, context, i); // [dst, dstPos + i, src, srcPos + i]
+                src.loadInsn(visitor, context); // [dst, dstPos + i, src[srcPos + i]]
+                dst.storeInsn(visitor, context); // []
+            }
+            return;
+        }
+        if (dst.isBuffer(context)) {
+            dst.loadArray(visitor, context); // [dst]
+            dst.loadIndex(visitor, context, 0); // [dst, dstPos]
+            src.loadArray(visitor, context); // [dst, dstPos, src]
+            src.loadIndex(visitor, context, 0); // [dst, dstPos, src, srcPos]
+            BytecodeUtil.constInt(visitor, size); // [dst, dstPos, src, srcPos, len]
+            String srcDescriptor = src.isBuffer(context) ? BUFFER_DESCRIPTOR : "[F";
+            visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BUFFER, "put", "(I" + srcDescriptor + "II)" + BUFFER_DESCRIPTOR, false); // [dst]
+            visitor.visitInsn(Opcodes.POP); // []
+            return;
+        }
+        if (src.isBuffer(context)) {
+            src.loadArray(visitor, context); // [src]
+            src.loadIndex(visitor, context, 0); // [src, srcPos]
+            dst.loadArray(visitor, context); // [src, srcPos, dst]
+            dst.loadIndex(visitor, context, 0); // [src, srcPos, dst, dstPos]
+            BytecodeUtil.constInt(visitor, size); // [src, srcPos, dst, dstPos, len]
+            visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BUFFER, "get", "(I[FII)" + BUFFER_DESCRIPTOR, false); // [src]
+            visitor.visitInsn(Opcodes.POP); // []
+            return;
+        }
+        src.loadArray(visitor, context); // [src]
+        src.loadIndex(visitor, context, 0); // [src, srcPos]
+        dst.loadArray(visitor, context); // [src, srcPos, dst]
+        dst.loadIndex(visitor, context, 0); // [src, srcPos, dst, dstPos]
+        BytecodeUtil.constInt(visitor, size); // [src, srcPos, dst, dstPos, len]
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false); // []
+    }
+
+    // Get the location of the expr's value, evaluating it into scratch space if it isn't already somewhere.
+    // Reserves from the context, so call between push() and pop().
+    static OperandLocation of(MolangExpr expr, MethodVisitor visitor, JvmCompilationContext context) {
+        OperandLocation existing = expr.location(context);
+        return existing != null ? existing : ofCopy(expr, visitor, context);
+    }
+
+    // Get the locations of all the exprs, evaluated in order. An expr is only read in place if nothing
+    // evaluated after it could modify it; otherwise its current value is copied to scratch space.
+    static List<OperandLocation> of(List<MolangExpr> exprs, MethodVisitor visitor, JvmCompilationContext context) {
+        List<OperandLocation> res = new ArrayList<>(exprs.size());
+        for (int i = 0; i < exprs.size(); i++) {
+            MolangExpr expr = exprs.get(i);
+            boolean laterSideEffects = exprs.subList(i + 1, exprs.size()).stream().anyMatch(MolangExpr::hasSideEffects);
+            res.add(laterSideEffects ? ofCopy(expr, visitor, context) : of(expr, visitor, context));
+        }
+        return res;
+    }
+
+    // Like of(), but never reads in place
+    private static OperandLocation ofCopy(MolangExpr expr, MethodVisitor visitor, JvmCompilationContext context) {
+        if (!expr.isVector()) {
+            int idx = context.reserveLocals(1);
+            expr.compileToJvmBytecode(visitor, -1, context);
+            visitor.visitVarInsn(Opcodes.FSTORE, idx);
+            return new Local(idx);
+        } else {
+            int idx = context.reserveArraySlots(expr.returnCount());
+            expr.compileToJvmBytecode(visitor, idx, context);
+            return new TempArray(idx);
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.figuramc.figura_molang.compile.jvm;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.Map;
+
+/**
+ * Emits LineNumberTable entries while compiling, so profilers and stack traces can point at the sub-expression that
+ * generated the code. The "line" of a node is its offset in the source, plus 1.
+ * Code of a node emitted after its children (like the add after both operands) is marked with the node's line again.
+ */
+public class SourceMap {
+
+    // Line numbers are unsigned shorts, so later offsets share the last line
+    public static final int MAX_LINE = 65535;
+
+    private final Map<MolangExpr, Integer> positions;
+    private int currentLine = -1;
+    private MethodVisitor lastVisitor;
+    private int lastLine = -1;
+
+    public SourceMap(Map<MolangExpr, Integer> positions) {
+        this.positions = positions;
+    }
+
+    // Mark the code emitted next as coming from the expr, if it has a position.
+    // Returns what to pass to exit() after the expr is done.
+    public int enter(MolangExpr expr, MethodVisitor visitor) {
+        int previous = currentLine;
+        Integer position = positions.get(expr);
+        if (position != null) {
+            currentLine = Math.min(position + 1, MAX_LINE);
+            mark(visitor, currentLine);
+        }
+        return previous;
+    }
+
+    // Go back to marking code with the enclosing expr's line
+    public void exit(MethodVisitor visitor, int previousLine) {
+        if (previousLine == currentLine) return;
+        currentLine = previousLine;
+        if (previousLine != -1) mark(visitor, previousLine);
+    }
+
+    private void mark(MethodVisitor visitor, int line) {
+        if (visitor == lastVisitor && line == lastLine) return;
+        Label label = new Label();
+        visitor.visitLabel(label);
+        visitor.visitLineNumber(line, label);
+        lastVisitor = visitor;
+        lastLine = line;
+    }
+
+}
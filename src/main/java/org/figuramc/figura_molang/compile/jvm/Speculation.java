@@ -0,0 +1,177 @@
+package org.figuramc.figura_molang.compile.jvm;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.ExecutionProfile;
+import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.ast.ActorQueryCall;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.control_flow.LogicalAnd;
+import org.figuramc.figura_molang.ast.control_flow.LogicalOr;
+import org.figuramc.figura_molang.ast.control_flow.Ternary;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Profile-guided code generation (see MolangInstance.profileGuided).
+ * Branch sites (ternaries, && and ||) and actor query sites are numbered in tree order, so parsing the same source again
+ * numbers them the same way. While profiling, generated code records into the CompiledMolang's ExecutionProfile.
+ * When compiling with a profile, the hot side of a biased branch is laid out first and the cold side is outlined into a
+ * helper method (see MethodSplitter), and actor queries which only ever saw one actor class check for exactly that
+ * class, calling it directly, before falling back to the general code.
+ * Specialized code counts its calls, and how often what it speculated on didn't hold: a cold side of a branch ran, or an
+ * actor guard failed. If that keeps happening, MolangInstance.recompileWarmExpressions() goes back to profiling.
+ */
+public final class Speculation {
+
+    // Samples needed before a branch counts as biased
+    public static final int MIN_SAMPLES = 100;
+    // A side of a branch is cold if taken at most once per this many times it's reached
+    public static final int COLD_RATIO = 100;
+    // Actor queries with more expensive args aren't worth generating twice
+    private static final int MAX_GUARDED_ARG_COST = 8;
+
+    private final Map<MolangExpr, Integer> branchSites = new IdentityHashMap<>();
+    private final Map<MolangExpr, Integer> querySites = new IdentityHashMap<>();
+    // Null while profiling
+    private final @Nullable ExecutionProfile profile;
+    private final Predicate<Class<?>> canReference;
+
+    private Speculation(MolangExpr root, @Nullable ExecutionProfile profile, Predicate<Class<?>> canReference) {
+        this.profile = profile;
+        this.canReference = canReference;
+        number(root);
+    }
+
+    private void number(MolangExpr expr) {
+        if (expr instanceof Ternary || expr instanceof LogicalAnd || expr instanceof LogicalOr) branchSites.put(expr, branchSites.size());
+        if (expr instanceof ActorQueryCall) querySites.put(expr, querySites.size());
+        for (MolangExpr child : expr.children()) number(child);
+    }
+
+    // Code records into an ExecutionProfile with branchSites() and querySites() sites, or null if there's nothing to profile
+    public static @Nullable Speculation profiling(MolangExpr root) {
+        Speculation res = new Speculation(root, null, c -> false);
+        return res.branchSites.isEmpty() && res.querySites.isEmpty() ? null : res;
+    }
+
+    // Code is specialized to the profile, or null if the profile doesn't match the expression, say because the instance's
+    // options changed since it was recorded. canReference tells whether generated code can refer to an actor class.
+    public static @Nullable Speculation optimizing(MolangExpr root, ExecutionProfile profile, Predicate<Class<?>> canReference) {
+        Speculation res = new Speculation(root, profile, canReference);
+        return res.branchSites.size() == profile.branchSites() && res.querySites.size() == profile.querySites() ? res : null;
+    }
+
+    public boolean isProfiling() {
+        return profile == null;
+    }
+
+    public int branchSites() {
+        return branchSites.size();
+    }
+
+    public int querySites() {
+        return querySites.size();
+    }
+
+    // Push the CompiledMolang's ExecutionProfile
+    public static void loadProfile(MethodVisitor visitor) {
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "profile", Type.getDescriptor(ExecutionProfile.class));
+    }
+
+    // Whether the specialized code speculates on anything, so it's worth counting how that goes
+    public boolean speculates() {
+        if (profile == null) return false;
+        for (MolangExpr site : branchSites.keySet())
+            if (bias(site) != null) return true;
+        for (MolangExpr site : querySites.keySet())
+            if (monomorphicActor((ActorQueryCall) site) != null) return true;
+        return false;
+    }
+
+    // In specialized code, emit code counting a call
+    public void countCall(MethodVisitor visitor) {
+        increment(visitor, "speculativeCalls");
+    }
+
+    // In specialized code, emit code counting that a speculation didn't hold
+    public void countMiss(MethodVisitor visitor) {
+        increment(visitor, "speculationMisses");
+    }
+
+    private static void increment(MethodVisitor visitor, String field) {
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitInsn(Opcodes.DUP);
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), field, "I");
+        visitor.visitInsn(Opcodes.ICONST_1);
+        visitor.visitInsn(Opcodes.IADD);
+        visitor.visitFieldInsn(Opcodes.PUTFIELD, Type.getInternalName(CompiledMolang.class), field, "I");
+    }
+
+    // While profiling, emit code counting that the branch site was reached, or took its first way if taken.
+    // In specialized code, emit code counting a miss if taking the first way, and it's cold.
+    public void countBranch(MethodVisitor visitor, MolangExpr site, boolean taken) {
+        if (!isProfiling()) {
+            if (taken && bias(site) == Boolean.FALSE) countMiss(visitor);
+            return;
+        }
+        loadProfile(visitor);
+        BytecodeUtil.constInt(visitor, branchSites.get(site));
+        BytecodeUtil.constInt(visitor, taken ? 1 : 0);
+        visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(ExecutionProfile.class), "branch", "(IZ)V", false);
+    }
+
+    // While profiling, emit code recording the class of the instance's actor at the query site
+    public void recordActor(MethodVisitor visitor, MolangExpr site) {
+        if (!isProfiling()) return;
+        loadProfile(visitor);
+        BytecodeUtil.constInt(visitor, querySites.get(site));
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+        visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actor", Type.getDescriptor(Object.class));
+        visitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(ExecutionProfile.class), "actor", "(ILjava/lang/Object;)V", false);
+    }
+
+    // Which way a branch site went: null if unbiased or not enough is known, TRUE if its first way is hot, FALSE if cold
+    public @Nullable Boolean bias(MolangExpr site) {
+        if (profile == null) return null;
+        int index = branchSites.get(site);
+        long reached = profile.reached(index), taken = profile.taken(index);
+        if (reached < MIN_SAMPLES) return null;
+        if (taken * COLD_RATIO <= reached) return Boolean.FALSE;
+        if ((reached - taken) * COLD_RATIO <= reached) return Boolean.TRUE;
+        return null;
+    }
+
+    // The sides of biased branches which are cold, for the MethodSplitter to outline
+    public Set<MolangExpr> coldBranches() {
+        Set<MolangExpr> res = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (MolangExpr site : branchSites.keySet()) {
+            Boolean bias = bias(site);
+            if (bias == null) continue;
+            if (site instanceof Ternary ternary) res.add(bias ? ternary.ifFalse : ternary.ifTrue);
+            else if (!bias && site instanceof LogicalAnd and) res.add(and.right);
+            else if (!bias && site instanceof LogicalOr or) res.add(or.right);
+        }
+        return res;
+    }
+
+    // The one actor class seen at the query site, if the generated code can check for it and call it directly
+    public @Nullable Class<?> monomorphicActor(ActorQueryCall site) {
+        if (profile == null) return null;
+        Class<?> actorClass = profile.actorClass(querySites.get(site));
+        if (actorClass == null || !site.actorClass.isAssignableFrom(actorClass) || !canReference.test(actorClass)) return null;
+        int argCost = 0;
+        for (MolangExpr arg : site.args) argCost += arg.estimateCost();
+        return argCost <= MAX_GUARDED_ARG_COST ? actorClass : null;
+    }
+
+}
@@ -2,28 +2,27 @@ package org.figuramc.figura_molang.func;
 
 
 import org.figuramc.figura_molang.ast.MolangExpr;
-import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 import java.util.List;
-import java.util.function.BiConsumer;
 
 // Used for operations like ==, <=, etc, which always yield a scalar.
-// Two values are on the stack in the tester.
-// If the comparison fails, and we should yield false, jump to the label.
-public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> tester) implements MolangFunction {
+// Two values are on the stack, and are compared with compareOpcode.
+// If the comparison fails, and we should yield false, failJumpOpcode is taken.
+public record ComparisonOperator(String name, int compareOpcode, int failJumpOpcode) implements MolangFunction {
 
-    public static final ComparisonOperator EQ_OP = new ComparisonOperator("a == b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFNE, fail); });
-    public static final ComparisonOperator NE_OP = new ComparisonOperator("a != b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFEQ, fail); });
-    public static final ComparisonOperator LT_OP = new ComparisonOperator("a < b", (v, fail) -> { v.visitInsn(Opcodes.FCMPG); v.visitJumpInsn(Opcodes.IFGE, fail); });
-    public static final ComparisonOperator LE_OP = new ComparisonOperator("a <= b", (v, fail) -> { v.visitInsn(Opcodes.FCMPG); v.visitJumpInsn(Opcodes.IFGT, fail); });
-    public static final ComparisonOperator GT_OP = new ComparisonOperator("a > b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFLE, fail); });
-    public static final ComparisonOperator GE_OP = new ComparisonOperator("a >= b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFLT, fail); });
+    public static final ComparisonOperator EQ_OP = new ComparisonOperator("a == b", Opcodes.FCMPL, Opcodes.IFNE);
+    public static final ComparisonOperator NE_OP = new ComparisonOperator("a != b", Opcodes.FCMPL, Opcodes.IFEQ);
+    public static final ComparisonOperator LT_OP = new ComparisonOperator("a < b", Opcodes.FCMPG, Opcodes.IFGE);
+    public static final ComparisonOperator LE_OP = new ComparisonOperator("a <= b", Opcodes.FCMPG, Opcodes.IFGT);
+    public static final ComparisonOperator GT_OP = new ComparisonOperator("a > b", Opcodes.FCMPL, Opcodes.IFLE);
+    public static final ComparisonOperator GE_OP = new ComparisonOperator("a >= b", Opcodes.FCMPL, Opcodes.IFLT);
 
     @Override
     public void checkArgs(List<MolangExpr> args, String source, int funcNameStart, int funcNameEnd) throws MolangCompileException {
@@ -38,84 +37,89 @@ public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> t
         return 1;
     }
 
+    @Override
+    public int estimateCost(List<MolangExpr> args) {
+        return args.get(0).estimateCost() + args.get(1).estimateCost() + 2 * Math.max(args.get(0).returnCount(), args.get(1).returnCount());
+    }
+
     @Override
     public void compile(MethodVisitor visitor, List<MolangExpr> args, int outputArrayIndex, JvmCompilationContext context) {
+        // For scalars, compare without branching if allowed
+        if (context.instance.branchless && !args.get(0).isVector() && !args.get(1).isVector()) {
+            compileConditionInt(visitor, args, context);
+            visitor.visitInsn(Opcodes.I2F);
+            return;
+        }
+        // Compile as a condition, then materialize the result
+        Label fail = new Label();
+        Label end = new Label();
+        compileCondition(visitor, args, fail, false, context);
+        BytecodeUtil.constFloat(visitor, 1.0f); // Success
+        visitor.visitJumpInsn(Opcodes.GOTO, end);
+        visitor.visitLabel(fail);
+        BytecodeUtil.constFloat(visitor, 0.0f); // Failure
+        visitor.visitLabel(end);
+    }
+
+    @Override
+    public void compileCondition(MethodVisitor visitor, List<MolangExpr> args, Label target, boolean jumpIfTrue, JvmCompilationContext context) {
         MolangExpr a = args.get(0);
         MolangExpr b = args.get(1);
 
-        // Handle the trivial case
+        // Handle the trivial case, a single compare and jump
         if (!a.isVector() && !b.isVector()) {
-            a.compileToJvmBytecode(visitor, outputArrayIndex, context);
-            b.compileToJvmBytecode(visitor, outputArrayIndex, context);
-            Label fail = new Label();
-            Label end = new Label();
-            tester.accept(visitor, fail);
-            BytecodeUtil.constFloat(visitor, 1.0f); // Success
-            visitor.visitJumpInsn(Opcodes.GOTO, end);
-            visitor.visitLabel(fail);
-            BytecodeUtil.constFloat(visitor, 0.0f); // Failure
-            visitor.visitLabel(end);
+            a.compileToJvmBytecode(visitor, -1, context);
+            b.compileToJvmBytecode(visitor, -1, context);
+            visitor.visitInsn(compareOpcode);
+            visitor.visitJumpInsn(jumpIfTrue ? BytecodeUtil.invertJump(failJumpOpcode) : failJumpOpcode, target);
             return;
         }
 
-        // Get locations for A and B
+        // Get locations for A and B, reading variables in place
         context.push();
-        int aIdx = store(a, visitor, context);
-        int bIdx = store(b, visitor, context);
+        List<OperandLocation> locations = OperandLocation.of(args, visitor, context);
+        OperandLocation aLoc = locations.get(0);
+        OperandLocation bLoc = locations.get(1);
 
-        Label fail = new Label();
-        Label end = new Label();
+        // All elements must pass. If we jump when false, any failing element jumps straight to the target.
+        // If we jump when true, failing elements skip past the jump instead.
+        Label fail = jumpIfTrue ? new Label() : target;
 
         // For loop
         int counterLocal = context.reserveLocals(1);
         // Combine vec values
+        context.chargeFuel(visitor, a.returnCount());
         BytecodeUtil.repeatNTimes(visitor, a.returnCount(), counterLocal, v -> {
             // Load A
-            if (a.isVector()) {
-                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp]
-                BytecodeUtil.constInt(v, aIdx); // [temp, aIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp, aIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [temp, aIdx + counter]
-                v.visitInsn(Opcodes.FALOAD); // [a]
-            } else {
-                v.visitVarInsn(Opcodes.FLOAD, aIdx); // [a]
-            }
+            aLoc.loadElement(v, context, counterLocal); // [a]
             // Load B
-            if (b.isVector()) {
-                // Load elem of B
-                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [a, temp]
-                BytecodeUtil.constInt(v, bIdx); // [a, temp, bIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [a, temp, bIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [a, temp, bIdx + counter]
-                v.visitInsn(Opcodes.FALOAD); // [a, b]
-            } else {
-                v.visitVarInsn(Opcodes.FLOAD, bIdx); // [a, b]
-            }
-            // Run the tester. If the comparison fails, we jump to fail.
-            tester.accept(v, fail);
+            bLoc.loadElement(v, context, counterLocal); // [a, b]
+            // Compare. If the comparison fails, we jump to fail.
+            v.visitInsn(compareOpcode);
+            v.visitJumpInsn(failJumpOpcode, fail);
         });
-        BytecodeUtil.constFloat(visitor, 1.0f); // Success
-        visitor.visitJumpInsn(Opcodes.GOTO, end);
-        visitor.visitLabel(fail);
-        BytecodeUtil.constFloat(visitor, 0.0f); // Failure
-        visitor.visitLabel(end);
+        if (jumpIfTrue) {
+            // Every element passed
+            visitor.visitJumpInsn(Opcodes.GOTO, target);
+            visitor.visitLabel(fail);
+        }
 
         // Pop
         context.pop();
     }
 
-    private static int store(MolangExpr expr, MethodVisitor visitor, JvmCompilationContext context) {
-        if (expr instanceof TempVariable temp) {
-            return temp.getRealLocation(context);
-        } else if (!expr.isVector()) {
-            int idx = context.reserveLocals(1);
-            expr.compileToJvmBytecode(visitor, -1, context);
-            visitor.visitVarInsn(Opcodes.FSTORE, idx);
-            return idx;
-        } else {
-            int idx = context.reserveArraySlots(expr.returnCount());
-            expr.compileToJvmBytecode(visitor, idx, context);
-            return idx;
+    @Override
+    public void compileConditionInt(MethodVisitor visitor, List<MolangExpr> args, JvmCompilationContext context) {
+        MolangExpr a = args.get(0);
+        MolangExpr b = args.get(1);
+        if (a.isVector() || b.isVector()) {
+            MolangFunction.super.compileConditionInt(visitor, args, context);
+            return;
         }
+        // Compare, then turn the comparison result into 1 or 0 with bit tricks
+        a.compileToJvmBytecode(visitor, -1, context);
+        b.compileToJvmBytecode(visitor, -1, context);
+        visitor.visitInsn(compareOpcode);
+        BytecodeUtil.compareResultToInt(visitor, failJumpOpcode);
     }
 }
@@ -0,0 +1,156 @@
+package org.figuramc.figura_molang.func;
+
+/**
+ * Float-only approximations of the transcendental math functions, used when MolangInstance.fastMath is enabled.
+ * Angles are in degrees, as in the molang spec, so no separate radians conversion is needed.
+ *
+ * Error bounds, measured against the double-precision java.lang.Math results rounded to float:
+ * - sinDeg, cosDeg: absolute error below 2e-7.
+ * - atanDeg, atan2Deg, asinDeg, acosDeg: absolute error below 1.5e-4 degrees.
+ * - exp: relative error below 3e-7. Results which would be subnormal are flushed to 0.
+ * - ln: absolute error below 1e-7 for inputs in [0.5, 2], and relative error below 2e-7 elsewhere.
+ * - pow: relative error below about 3e-7 * (1 + |b * ln(a)|), for positive a. Other cases defer to Math.pow.
+ * NaN and infinite inputs produce the same results as java.lang.Math.
+ * Range reduction only uses plain float arithmetic, not Math.fma, which is very slow on CPUs without an FMA instruction.
+ */
+public class FastMath {
+
+    private static final float DEG_TO_RAD = (float) (Math.PI / 180);
+    private static final float RAD_TO_DEG = (float) (180 / Math.PI);
+    // ln(2) split Cody-Waite style: LN_2_HI has its low 9 bits clear, so multiplying it by an exponent is exact
+    private static final float LN_2_HI = 0.693145751953125f;
+    private static final float LN_2_LO = (float) (Math.log(2) - LN_2_HI);
+    private static final float LOG2_E = (float) (1 / Math.log(2));
+
+    public static float sinDeg(float degrees) {
+        return sinCosDeg(degrees, 0);
+    }
+
+    public static float cosDeg(float degrees) {
+        return sinCosDeg(degrees, 1);
+    }
+
+    // Reduce to [-45, 45] degrees around the nearest multiple of 90, then pick sin or cos of the remainder by quadrant.
+    private static float sinCosDeg(float degrees, int quadrantOffset) {
+        if (!(Math.abs(degrees) < 1e9f)) {
+            // Infinities, NaN, or so large the quadrant doesn't fit in an int
+            double radians = Math.toRadians(degrees);
+            return (float) (quadrantOffset == 0 ? Math.sin(radians) : Math.cos(radians));
+        }
+        int quadrant = Math.round(degrees / 90f);
+        // Subtract quadrant * 90 in two parts, each of whose products fits in a float, so every step is exact
+        int quadrantHigh = quadrant / 4096 * 4096;
+        float rem = (degrees - quadrantHigh * 90f) - (quadrant - quadrantHigh) * 90f;
+        // For large inputs, degrees / 90 is rounded enough that the quadrant can be one off
+        if (rem > 45) {
+            rem -= 90;
+            quadrant++;
+        } else if (rem < -45) {
+            rem += 90;
+            quadrant--;
+        }
+        float t = rem * DEG_TO_RAD;
+        float t2 = t * t;
+        return switch ((quadrant + quadrantOffset) & 3) {
+            case 0 -> sinPoly(t, t2);
+            case 1 -> cosPoly(t2);
+            case 2 -> -sinPoly(t, t2);
+            default -> -cosPoly(t2);
+        };
+    }
+
+    // Taylor series up to t^9 / t^8, accurate on [-pi/4, pi/4]
+    private static float sinPoly(float t, float t2) {
+        return t * (1f + t2 * (-1f / 6 + t2 * (1f / 120 + t2 * (-1f / 5040 + t2 * (1f / 362880)))));
+    }
+    private static float cosPoly(float t2) {
+        return 1f + t2 * (-1f / 2 + t2 * (1f / 24 + t2 * (-1f / 720 + t2 * (1f / 40320))));
+    }
+
+    public static float atanDeg(float x) {
+        return atanRad(x) * RAD_TO_DEG;
+    }
+
+    public static float atan2Deg(float y, float x) {
+        if (Float.isNaN(x) || Float.isNaN(y)) return Float.NaN;
+        float ax = Math.abs(x);
+        float ay = Math.abs(y);
+        float result;
+        if (ax == ay) {
+            // Covers zeros and infinities, where the ratio below is undefined
+            result = ax == 0 ? 0 : (float) (Math.PI / 4);
+        } else if (ay < ax) {
+            result = atanPoly(ay / ax);
+        } else {
+            result = (float) (Math.PI / 2) - atanPoly(ax / ay);
+        }
+        if (x < 0 || (x == 0 && 1 / x < 0)) result = (float) Math.PI - result;
+        return Math.copySign(result * RAD_TO_DEG, y);
+    }
+
+    public static float asinDeg(float x) {
+        return atan2Deg(x, (float) Math.sqrt((1 - x) * (1 + x)));
+    }
+
+    public static float acosDeg(float x) {
+        return atan2Deg((float) Math.sqrt((1 - x) * (1 + x)), x);
+    }
+
+    private static float atanRad(float x) {
+        float ax = Math.abs(x);
+        float result = ax <= 1 ? atanPoly(ax) : (float) (Math.PI / 2) - atanPoly(1 / ax);
+        return Math.copySign(result, x);
+    }
+
+    // Minimax polynomial for atan on [0, 1]
+    private static float atanPoly(float x) {
+        float x2 = x * x;
+        return x * (0.99997726f + x2 * (-0.33262347f + x2 * (0.19354346f + x2 * (-0.11643287f + x2 * (0.05265332f + x2 * -0.01172120f)))));
+    }
+
+    // e^x = 2^n * e^r, where n is the nearest integer to x / ln(2) and |r| <= ln(2) / 2
+    public static float exp(float x) {
+        if (Float.isNaN(x)) return x;
+        float y = x * LOG2_E;
+        if (y >= 128) return Float.POSITIVE_INFINITY;
+        if (y < -126) return 0;
+        float n = Math.round(y);
+        // n * LN_2_HI is exact, and so is subtracting it from x, which is close by
+        float r = (x - n * LN_2_HI) - n * LN_2_LO;
+        float er = 1f + r * (1f + r * (1f / 2 + r * (1f / 6 + r * (1f / 24 + r * (1f / 120 + r * (1f / 720))))));
+        // Exponent is in [-126, 128], so scale in two steps to avoid overflowing the exponent field at 128
+        int half = (int) n / 2;
+        return er * Float.intBitsToFloat((half + 127) << 23) * Float.intBitsToFloat(((int) n - half + 127) << 23);
+    }
+
+    // ln(x) = e * ln(2) + ln(m), where x = m * 2^e with m in [sqrt(2)/2, sqrt(2)]
+    public static float ln(float x) {
+        if (!(x > 0)) return x == 0 ? Float.NEGATIVE_INFINITY : Float.NaN;
+        if (x == Float.POSITIVE_INFINITY) return x;
+        int bits = Float.floatToRawIntBits(x);
+        int exponent = (bits >> 23) - 127;
+        if (exponent == -127) {
+            // Subnormal, scale up by 2^23 first
+            bits = Float.floatToRawIntBits(x * 8388608f);
+            exponent = (bits >> 23) - 127 - 23;
+        }
+        float m = Float.intBitsToFloat((bits & 0x007FFFFF) | 0x3F800000);
+        if (m > 1.41421356f) {
+            m *= 0.5f;
+            exponent++;
+        }
+        // ln(m) = 2 * atanh(s), s = (m - 1) / (m + 1), |s| <= 0.172
+        float s = (m - 1) / (m + 1);
+        float s2 = s * s;
+        float lnM = 2 * s * (1f + s2 * (1f / 3 + s2 * (1f / 5 + s2 * (1f / 7 + s2 * (1f / 9)))));
+        return exponent * LN_2_HI + (exponent * LN_2_LO + lnM);
+    }
+
+    public static float pow(float a, float b) {
+        if (a > 0 && a != Float.POSITIVE_INFINITY && Float.isFinite(b))
+            return exp(b * ln(a));
+        // Negative bases, zeros, infinities and NaN have many special cases, leave those to Math
+        return (float) Math.pow(a, b);
+    }
+
+}
@@ -1,15 +1,15 @@
 package org.figuramc.figura_molang.func;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
-import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -18,8 +18,15 @@ import java.util.function.Consumer;
  * Vector args are processed element-wise.
  * Float args are splatted to match vector args.
  * All vector args are expected to be the same size.
+ *
+ * @param fastFloatFunc If non-null, a float-only approximation of floatFunc, used when the instance has fastMath enabled.
+ * @param branchlessFloatFunc If non-null, a version of floatFunc without branches, used when the instance has branchless enabled.
  */
-public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> floatFunc, boolean usesDouble) implements MolangFunction {
+public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> floatFunc, boolean usesDouble, @Nullable Consumer<MethodVisitor> fastFloatFunc, @Nullable Consumer<MethodVisitor> branchlessFloatFunc) implements MolangFunction {
+
+    public FloatFunction(String name, int argCount, Consumer<MethodVisitor> floatFunc, boolean usesDouble) {
+        this(name, argCount, floatFunc, usesDouble, null, null);
+    }
 
     // Basic operators
     public static final FloatFunction ADD_OP = binop("a + b", Opcodes.FADD);
@@ -31,43 +38,43 @@ public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> f
     // ! operator
 
     // Element-wise comparison operators
-    public static final FloatFunction EQ = new FloatFunction("math.eq", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFNE), false);
-    public static final FloatFunction NE = new FloatFunction("math.ne", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFEQ), false);
-    public static final FloatFunction LT = new FloatFunction("math.lt", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFGE), false);
-    public static final FloatFunction LE = new FloatFunction("math.le", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFGT), false);
-    public static final FloatFunction GT = new FloatFunction("math.gt", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFLE), false);
-    public static final FloatFunction GE = new FloatFunction("math.ge", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFLT), false);
+    public static final FloatFunction EQ = comparison("math.eq", Opcodes.IFNE);
+    public static final FloatFunction NE = comparison("math.ne", Opcodes.IFEQ);
+    public static final FloatFunction LT = comparison("math.lt", Opcodes.IFGE);
+    public static final FloatFunction LE = comparison("math.le", Opcodes.IFGT);
+    public static final FloatFunction GT = comparison("math.gt", Opcodes.IFLE);
+    public static final FloatFunction GE = comparison("math.ge", Opcodes.IFLT);
 
     // Math functions
     public static final FloatFunction ABS = math("math.abs", 1, "abs", false);
-    public static final FloatFunction ACOS = math("math.acos", 1, "acos", true, false, true);
-    public static final FloatFunction ASIN = math("math.asin", 1, "asin", true, false, true);
-    public static final FloatFunction ATAN = math("math.atan", 1, "atan", true, false, true);
-    public static final FloatFunction ATAN2 = math("math.atan2", 2, "atan2", true, false, true);
+    public static final FloatFunction ACOS = withFastMath(math("math.acos", 1, "acos", true, false, true), "acosDeg");
+    public static final FloatFunction ASIN = withFastMath(math("math.asin", 1, "asin", true, false, true), "asinDeg");
+    public static final FloatFunction ATAN = withFastMath(math("math.atan", 1, "atan", true, false, true), "atanDeg");
+    public static final FloatFunction ATAN2 = withFastMath(math("math.atan2", 2, "atan2", true, false, true), "atan2Deg");
     public static final FloatFunction CEIL = math("math.ceil", 1, "ceil", true);
     public static final FloatFunction CLAMP = math("math.clamp", 3, "clamp", false);
-    public static final FloatFunction COS = math("math.cos", 1, "cos", true, true, false);
+    public static final FloatFunction COS = withFastMath(math("math.cos", 1, "cos", true, true, false), "cosDeg");
     // Die roll
     // Die roll integer
-    public static final FloatFunction EXP = math("math.exp", 1, "exp", true);
+    public static final FloatFunction EXP = withFastMath(math("math.exp", 1, "exp", true), "exp");
     public static final FloatFunction FLOOR = math("math.floor", 1, "floor", true);
     // Hermite blend
     public static float lerp(float a, float b, float delta) { return Math.fma(delta, b - a, a); }
     public static final FloatFunction LERP = custom("math.lerp", 3, "lerp");
     // Lerp rotate
-    public static final FloatFunction LN = math("math.ln", 1, "log", true);
+    public static final FloatFunction LN = withFastMath(math("math.ln", 1, "log", true), "ln");
     public static final FloatFunction MAX = math("math.max", 2, "max", false);
     // Min Angle
     public static final FloatFunction MIN = math("math.min", 2, "min", false);
     public static final FloatFunction MOD = new FloatFunction("math.mod", 2, v -> v.visitInsn(Opcodes.FREM), false);
-    public static final FloatFunction POW = math("math.pow", 2, "pow", true);
+    public static final FloatFunction POW = withFastMath(math("math.pow", 2, "pow", true), "pow");
     // Random
     // Random integer
     public static final FloatFunction ROUND = new FloatFunction("math.round", 1, v -> {
         v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "round", "(F)F", false);
         v.visitInsn(Opcodes.I2F);
     }, false);
-    public static final FloatFunction SIN = math("math.sin", 1, "sin", true, true, false);
+    public static final FloatFunction SIN = withFastMath(math("math.sin", 1, "sin", true, true, false), "sinDeg");
     public static final FloatFunction SQRT = math("math.sqrt", 1, "sqrt", true);
     public static final FloatFunction TRUNC = new FloatFunction("math.trunc", 1, v -> {
         v.visitInsn(Opcodes.F2I);
@@ -89,6 +96,20 @@ public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> f
     }
 
 
+    // Add a fast-math version of the function, calling FastMath.jvmName
+    private static FloatFunction withFastMath(FloatFunction function, String jvmName) {
+        String desc = "(" + "F".repeat(function.argCount) + ")F";
+        return new FloatFunction(function.name, function.argCount, function.floatFunc, function.usesDouble, v -> {
+            v.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(FastMath.class), jvmName, desc, false);
+        }, function.branchlessFloatFunc);
+    }
+
+    // An element-wise comparison, pushing 1 or 0. For testing if two are equal, pass IFNE, etc., like BytecodeUtil.compareFloats().
+    private static FloatFunction comparison(String name, int jumpOpcodeOpposite) {
+        return new FloatFunction(name, 2, v -> BytecodeUtil.compareFloats(v, jumpOpcodeOpposite), false, null,
+                v -> BytecodeUtil.compareFloatsBranchless(v, jumpOpcodeOpposite));
+    }
+
     // inputToRadians: Whether to convert the input to radians first (the function accepts radians, but molang spec uses degrees)
     // outputToDegrees: Whether to convert the output to degrees (the function returns radians, but molang spec uses degrees)
     private static FloatFunction math(String name, int argCount, String jvmName, boolean usesDouble, boolean inputToRadians, boolean outputToDegrees) {
@@ -150,78 +171,83 @@ public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> f
         return 1;
     }
 
+    @Override
+    public int estimateCost(List<MolangExpr> args) {
+        // Calls through double-precision Math are far more expensive than float instructions
+        int perElement = usesDouble ? 20 : 1;
+        return MolangExpr.totalCost(args) + returnCount(args) * perElement;
+    }
+
     @Override
     public void compile(MethodVisitor visitor, List<MolangExpr> args, int outputArrayIndex, JvmCompilationContext context) {
+        // Vector args need a loop, see compileToDestination()
+        if (args.stream().anyMatch(MolangExpr::isVector)) {
+            compileToDestination(visitor, args, new OperandLocation.TempArray(outputArrayIndex), context);
+            return;
+        }
+        boolean usesDouble = usesDouble(context);
+        context.push();
+        // There are no vector args:
+        // Compile each arg, pushing it to the stack:
+        for (MolangExpr arg : args) {
+            arg.compileToJvmBytecode(visitor, -1, context);
+            // If we need to use doubles, convert each to a double:
+            if (usesDouble) visitor.visitInsn(Opcodes.F2D);
+        }
+        // Run the float function, which will pop them from the stack and produce the output float.
+        func(context).accept(visitor);
+        // If we use doubles, convert the result back to float
+        if (usesDouble) visitor.visitInsn(Opcodes.D2F);
+        context.pop();
+    }
+
+    @Override
+    public void compileToDestination(MethodVisitor visitor, List<MolangExpr> args, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        // There are some vector args. We need to set up a loop.
+        Consumer<MethodVisitor> func = func(context);
+        boolean usesDouble = usesDouble(context);
         context.push();
-        // Check if there are any vector args.
-        if (args.stream().noneMatch(MolangExpr::isVector)) {
-            // There are no vector args:
-            // Compile each arg, pushing it to the stack:
-            for (MolangExpr arg : args) {
-                arg.compileToJvmBytecode(visitor, -1, context);
+        // Find where the args are. Variables are read in place, others are compiled into local variables or float[] storage.
+        List<OperandLocation> locations = OperandLocation.of(args, visitor, context);
+
+        int counterLocal = context.reserveLocals(1);
+        context.chargeFuel(visitor, returnCount(args));
+        BytecodeUtil.repeatNTimes(visitor, returnCount(args), counterLocal, v -> {
+            // Prepare float[] and output location:
+            dest.loadArray(v, context);
+            v.visitVarInsn(Opcodes.ILOAD, counterLocal);
+            dest.loadIndex(v, context, 0);
+            v.visitInsn(Opcodes.IADD);
+
+            // Load all the args: the i'th term of vectors, or the value of scalars
+            for (OperandLocation location : locations) {
+                location.loadElement(v, context, counterLocal);
                 // If we need to use doubles, convert each to a double:
-                if (usesDouble) visitor.visitInsn(Opcodes.F2D);
+                if (usesDouble) v.visitInsn(Opcodes.F2D);
             }
-            // Run the float function, which will pop them from the stack and produce the output float.
-            floatFunc.accept(visitor);
+            // Invoke the function, pushing result to the stack
+            func.accept(v);
             // If we use doubles, convert the result back to float
-            if (usesDouble) visitor.visitInsn(Opcodes.D2F);
-        } else {
-            // TODO DOUBLES HERE!!!
-            // There are some vector args. We need to set up a loop.
-
-            // Collect args into local variables or float[] storage
-            List<Integer> locations = new ArrayList<>();
-            for (MolangExpr arg : args) {
-                if (arg instanceof TempVariable tempVar) {
-                    // Already stored somewhere, use that location
-                    locations.add(tempVar.getRealLocation(context));
-                } else if (arg.isVector()) {
-                    // Compile it to scratch space
-                    int loc = context.reserveArraySlots(arg.returnCount());
-                    locations.add(loc);
-                    System.gc();
-                    arg.compileToJvmBytecode(visitor, loc, context); // Compile to loc
-                } else {
-                    // Compile it to push to stack, then store in a local variable
-                    int loc = context.reserveLocals(1);
-                    locations.add(loc);
-                    arg.compileToJvmBytecode(visitor, -1, context);
-                    visitor.visitVarInsn(Opcodes.FSTORE, loc);
-                }
-            }
-
-            int counterLocal = context.reserveLocals(1);
-            BytecodeUtil.repeatNTimes(visitor, returnCount(args), counterLocal, v -> {
-                // Prepare float[] and output location:
-                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal);
-                BytecodeUtil.constInt(v, outputArrayIndex);
-                v.visitInsn(Opcodes.IADD);
-
-                // Load all the args:
-                for (int j = 0; j < args.size(); j++) {
-                    MolangExpr arg = args.get(j);
-                    int location = locations.get(j);
-                    if (arg.isVector()) {
-                        // If it's a vector, load the i'th term from its location:
-                        v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
-                        v.visitVarInsn(Opcodes.ILOAD, counterLocal);
-                        BytecodeUtil.constInt(v, location);
-                        v.visitInsn(Opcodes.IADD);
-                        v.visitInsn(Opcodes.FALOAD);
-                    } else {
-                        // If it's a scalar, load the location'th local variable
-                        v.visitVarInsn(Opcodes.FLOAD, location);
-                    }
-                }
-                // Invoke the function, pushing result to the stack
-                floatFunc.accept(v);
-                // Store in the float[] at the previously prepared location
-                v.visitInsn(Opcodes.FASTORE);
-            });
-        }
+            if (usesDouble) v.visitInsn(Opcodes.D2F);
+            // Store in the float[] at the previously prepared location
+            dest.storeInsn(v, context);
+        });
         context.pop();
     }
 
+    // Pick the fast approximation if it exists and the instance allows it
+    private boolean useFast(JvmCompilationContext context) {
+        return fastFloatFunc != null && context.instance.fastMath;
+    }
+
+    private Consumer<MethodVisitor> func(JvmCompilationContext context) {
+        if (branchlessFloatFunc != null && context.instance.branchless) return branchlessFloatFunc;
+        return useFast(context) ? fastFloatFunc : floatFunc;
+    }
+
+    // Fast approximations always work on floats
+    private boolean usesDouble(JvmCompilationContext context) {
+        return usesDouble && !useFast(context);
+    }
+
 }
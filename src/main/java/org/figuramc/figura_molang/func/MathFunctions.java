@@ -0,0 +1,50 @@
+package org.figuramc.figura_molang.func;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// All the math functions! :D
+// This lives outside MolangFunction: since that interface has default methods, initializing any function class
+// initializes MolangFunction first, which would then see this table half-built.
+public class MathFunctions {
+
+    public static final Map<String, MolangFunction> ALL_MATH_FUNCTIONS = new HashMap<>() {{
+        // Molang
+        put("abs", FloatFunction.ABS);
+        put("acos", FloatFunction.ACOS);
+        put("asin", FloatFunction.ASIN);
+        put("atan", FloatFunction.ATAN);
+        put("atan2", FloatFunction.ATAN2);
+        put("ceil", FloatFunction.CEIL);
+        put("clamp", FloatFunction.CLAMP);
+        put("cos", FloatFunction.COS);
+        put("exp", FloatFunction.EXP);
+        put("floor", FloatFunction.FLOOR);
+        put("lerp", FloatFunction.LERP);
+        put("ln", FloatFunction.LN);
+        put("max", FloatFunction.MAX);
+        put("min", FloatFunction.MIN);
+        put("mod", FloatFunction.MOD);
+        put("pow", FloatFunction.POW);
+        put("round", FloatFunction.ROUND);
+        put("sin", FloatFunction.SIN);
+        put("sqrt", FloatFunction.SQRT);
+        put("trunc", FloatFunction.TRUNC);
+        // Custom
+        put("eq", FloatFunction.EQ);
+        put("ne", FloatFunction.NE);
+        put("lt", FloatFunction.LT);
+        put("le", FloatFunction.LE);
+        put("gt", FloatFunction.GT);
+        put("ge", FloatFunction.GE);
+        // Vector reduction
+        put("sum", VecReduceFunction.SUM);
+        put("product", VecReduceFunction.PRODUCT);
+        put("min_elem", VecReduceFunction.MIN_ELEM);
+        put("max_elem", VecReduceFunction.MAX_ELEM);
+        // Vector pair reduction
+        put("dot", VecReduceFunctionBinary.DOT_PRODUCT);
+        put("dist", VecReduceFunctionBinary.DISTANCE);
+    }};
+
+}
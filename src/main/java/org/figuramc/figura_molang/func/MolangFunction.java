@@ -3,11 +3,12 @@ package org.figuramc.figura_molang.func;
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public interface MolangFunction {
 
@@ -20,50 +21,39 @@ public interface MolangFunction {
     // How many values to return, given these args
     int returnCount(List<MolangExpr> args);
 
+    // Rough cost estimate of calling this with these args, see MolangExpr.estimateCost().
+    // By default, about one operation per output, plus evaluating the args.
+    default int estimateCost(List<MolangExpr> args) {
+        return MolangExpr.totalCost(args) + returnCount(args);
+    }
+
     // Compile given these args.
     // If this has multiple outputs, store them at the given arrayIndex in the float[].
     // If this has one output, push it on the stack.
     void compile(MethodVisitor visitor, List<MolangExpr> args, int outputArrayIndex, JvmCompilationContext context);
 
-    // All the math functions! :D
-    Map<String, MolangFunction> ALL_MATH_FUNCTIONS = new HashMap<>() {{
-        // Molang
-        put("abs", FloatFunction.ABS);
-        put("acos", FloatFunction.ACOS);
-        put("asin", FloatFunction.ASIN);
-        put("atan", FloatFunction.ATAN);
-        put("atan2", FloatFunction.ATAN2);
-        put("ceil", FloatFunction.CEIL);
-        put("clamp", FloatFunction.CLAMP);
-        put("cos", FloatFunction.COS);
-        put("exp", FloatFunction.EXP);
-        put("floor", FloatFunction.FLOOR);
-        put("lerp", FloatFunction.LERP);
-        put("ln", FloatFunction.LN);
-        put("max", FloatFunction.MAX);
-        put("min", FloatFunction.MIN);
-        put("mod", FloatFunction.MOD);
-        put("pow", FloatFunction.POW);
-        put("round", FloatFunction.ROUND);
-        put("sin", FloatFunction.SIN);
-        put("sqrt", FloatFunction.SQRT);
-        put("trunc", FloatFunction.TRUNC);
-        // Custom
-        put("eq", FloatFunction.EQ);
-        put("ne", FloatFunction.NE);
-        put("lt", FloatFunction.LT);
-        put("le", FloatFunction.LE);
-        put("gt", FloatFunction.GT);
-        put("ge", FloatFunction.GE);
-        // Vector reduction
-        put("sum", VecReduceFunction.SUM);
-        put("product", VecReduceFunction.PRODUCT);
-        put("min_elem", VecReduceFunction.MIN_ELEM);
-        put("max_elem", VecReduceFunction.MAX_ELEM);
-        // Vector pair reduction
-        put("dot", VecReduceFunctionBinary.DOT_PRODUCT);
-        put("dist", VecReduceFunctionBinary.DISTANCE);
-    }};
-
+    // Compile given these args, writing the outputs to dest; see MolangExpr.compileToDestination().
+    // Only called when this has multiple outputs. By default, compiles into scratch space and copies them over.
+    default void compileToDestination(MethodVisitor visitor, List<MolangExpr> args, OperandLocation.ArrayLocation dest, JvmCompilationContext context) {
+        context.push();
+        int scratch = context.reserveArraySlots(returnCount(args));
+        compile(visitor, args, scratch, context);
+        OperandLocation.copy(visitor, context, new OperandLocation.TempArray(scratch), dest, returnCount(args));
+        context.pop();
+    }
+
+    // Compile given these args as a condition; see MolangExpr.compileToJvmCondition().
+    // Only called when this has one output. By default, evaluates it and compares against 0.
+    default void compileCondition(MethodVisitor visitor, List<MolangExpr> args, Label target, boolean jumpIfTrue, JvmCompilationContext context) {
+        compile(visitor, args, -1, context);
+        BytecodeUtil.jumpOnCondition(visitor, target, jumpIfTrue);
+    }
+
+    // Compile given these args as a condition, pushing the int 1 or 0; see MolangExpr.compileToJvmConditionInt().
+    // Only called when this has one output.
+    default void compileConditionInt(MethodVisitor visitor, List<MolangExpr> args, JvmCompilationContext context) {
+        compile(visitor, args, -1, context);
+        BytecodeUtil.conditionToInt(visitor);
+    }
 
 }
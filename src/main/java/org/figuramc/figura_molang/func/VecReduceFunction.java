@@ -1,10 +1,10 @@
 package org.figuramc.figura_molang.func;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
-import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -70,28 +70,19 @@ public record VecReduceFunction(String name, float initial, Consumer<MethodVisit
         }
 
         context.push();
-        int arrayLocation;
-        // If already in temp variable,
-        if (arg instanceof TempVariable tempVar) {
-            arrayLocation = tempVar.getRealLocation(context);
-        } else {
-            arrayLocation = context.reserveArraySlots(arg.returnCount());
-            arg.compileToJvmBytecode(visitor, arrayLocation, context);
-        }
+        // Variables are read in place
+        OperandLocation location = OperandLocation.of(arg, visitor, context);
         int accum = context.reserveLocals(1);
         int counterLocal = context.reserveLocals(1);
         // Store initial in accumulator
         BytecodeUtil.constFloat(visitor, initial);
         visitor.visitVarInsn(Opcodes.FSTORE, accum);
         // Reduce all values from vec
+        context.chargeFuel(visitor, arg.returnCount());
         BytecodeUtil.repeatNTimes(visitor, arg.returnCount(), counterLocal, v -> {
-            v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp]
-            BytecodeUtil.constInt(v, arrayLocation); // [temp, varloc]
-            v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp, varloc, counter]
-            v.visitInsn(Opcodes.IADD); // [temp, varloc + counter]
-            v.visitInsn(Opcodes.FALOAD); // [temp[varloc + counter]]
+            location.loadElement(v, context, counterLocal); // [arg[counter]]
             preAccum.accept(v);
-            v.visitVarInsn(Opcodes.FLOAD, accum); // [temp[varloc + counter], accum]
+            v.visitVarInsn(Opcodes.FLOAD, accum); // [arg[counter], accum]
             postAccum.accept(v);
             v.visitVarInsn(Opcodes.FSTORE, accum); // []
         });
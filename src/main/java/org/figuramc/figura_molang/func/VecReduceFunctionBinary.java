@@ -1,10 +1,10 @@
 package org.figuramc.figura_molang.func;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
-import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.OperandLocation;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -62,10 +62,11 @@ public record VecReduceFunctionBinary(String name, float initial, Consumer<Metho
             return;
         }
 
-        // Store A and B
+        // Get locations for A and B, reading variables in place
         context.push();
-        int aIdx = store(a, visitor, context);
-        int bIdx = store(b, visitor, context);
+        List<OperandLocation> locations = OperandLocation.of(args, visitor, context);
+        OperandLocation aLoc = locations.get(0);
+        OperandLocation bLoc = locations.get(1);
 
         // For loop
         int accum = context.reserveLocals(1);
@@ -74,27 +75,12 @@ public record VecReduceFunctionBinary(String name, float initial, Consumer<Metho
         BytecodeUtil.constFloat(visitor, initial);
         visitor.visitVarInsn(Opcodes.FSTORE, accum);
         // Combine vec values
+        context.chargeFuel(visitor, Math.max(a.returnCount(), b.returnCount()));
         BytecodeUtil.repeatNTimes(visitor, Math.max(a.returnCount(), b.returnCount()), counterLocal, v -> {
             // Load A
-            if (a.isVector()) {
-                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp]
-                BytecodeUtil.constInt(v, aIdx); // [temp, aIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp, aIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [temp, aIdx + counter]
-                v.visitInsn(Opcodes.FALOAD); // [temp[aIdx + counter]]
-            } else {
-                v.visitVarInsn(Opcodes.FLOAD, aIdx);
-            }
+            aLoc.loadElement(v, context, counterLocal); // [a]
             // Load B
-            if (b.isVector()) {
-                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp[aIdx + counter], temp]
-                BytecodeUtil.constInt(v, bIdx); // [temp[aIdx + counter], temp, bIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp[aIdx + counter], temp, bIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [temp[aIdx + counter], temp, bIdx + counter]
-                v.visitInsn(Opcodes.FALOAD); // [temp[aIdx + counter], temp[bIdx + counter]]
-            } else {
-                v.visitVarInsn(Opcodes.FLOAD, bIdx);
-            }
+            bLoc.loadElement(v, context, counterLocal); // [a, b]
             // Pre-accumulator stage
             preAccum.accept(v);
             // Load accumulator
@@ -112,19 +98,4 @@ public record VecReduceFunctionBinary(String name, float initial, Consumer<Metho
         context.pop();
     }
 
-    private static int store(MolangExpr expr, MethodVisitor visitor, JvmCompilationContext context) {
-        if (expr instanceof TempVariable temp) {
-            return temp.getRealLocation(context);
-        } else if (!expr.isVector()) {
-            int idx = context.reserveLocals(1);
-            expr.compileToJvmBytecode(visitor, -1, context);
-            visitor.visitVarInsn(Opcodes.FSTORE, idx);
-            return idx;
-        } else {
-            int idx = context.reserveArraySlots(expr.returnCount());
-            expr.compileToJvmBytecode(visitor, idx, context);
-            return idx;
-        }
-    }
-
 }
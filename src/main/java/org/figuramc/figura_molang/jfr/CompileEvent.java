@@ -0,0 +1,54 @@
+package org.figuramc.figura_molang.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Emitted by each MolangInstance.compile() call, while the flight recorder is running with it enabled.
+ * Useful for matching hitches while loading expressions with GC and JIT activity in the same recording.
+ */
+@Name("org.figuramc.figura_molang.Compile")
+@Label("Molang Compile")
+@Category("Molang")
+@Description("Parsing and compiling a Molang expression")
+@StackTrace(false)
+public class CompileEvent extends Event {
+
+    // Sources longer than this are cut off, to keep the recording small
+    public static final int MAX_SOURCE_LENGTH = 256;
+
+    @Label("Source")
+    public String source;
+
+    @Label("Result")
+    @Description("\"class\", \"shared class\", \"prebuilt\", \"baked\", or \"failed\"")
+    public String result = "failed";
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long parseTime;
+
+    @Label("Codegen Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long codegenTime;
+
+    @Label("Class Size")
+    @DataAmount(DataAmount.BYTES)
+    public int classBytes;
+
+    @Label("Array Slots")
+    @Description("Slots of the temp float[] used")
+    public int arraySlots;
+
+    @Label("Locals")
+    @Description("JVM local variable slots used by evaluateImpl")
+    public int locals;
+
+    @Label("Class Cache Hit")
+    @Description("Whether an existing class of the same shape was reused, see MolangInstance.liftLiterals")
+    public boolean cacheHit;
+
+    public void setSource(String source) {
+        this.source = source.length() > MAX_SOURCE_LENGTH ? source.substring(0, MAX_SOURCE_LENGTH) : source;
+    }
+
+}
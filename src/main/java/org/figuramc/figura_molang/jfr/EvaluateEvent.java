@@ -0,0 +1,31 @@
+package org.figuramc.figura_molang.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Emitted for the evaluations that Instrumentation times (see Instrumentation.timingInterval), so only for expressions
+ * compiled with MolangInstance.instrument. Sampled this way, it doesn't slow down every evaluation.
+ */
+@Name("org.figuramc.figura_molang.Evaluate")
+@Label("Molang Evaluate")
+@Category("Molang")
+@Description("A sampled evaluation of an instrumented Molang expression")
+@StackTrace(false)
+public class EvaluateEvent extends Event {
+
+    @Label("Expression Id")
+    @Description("CompiledMolang.instrumentationId")
+    public int expressionId;
+
+    @Label("Return Count")
+    public int returnCount;
+
+    @Label("Re-entrancy Depth")
+    @Description("MolangInstance.reEntrantFlag: 1 for an outermost evaluation, 2 if nested")
+    public int reEntrancyDepth;
+
+    @Label("Evaluation Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long evaluationTime;
+
+}
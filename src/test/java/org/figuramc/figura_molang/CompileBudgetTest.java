@@ -0,0 +1,98 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sources within the default compile budgets must compile, and sources past them must fail with a MolangCompileException,
+ * never a StackOverflowError, on a thread with the usual 1 MB stack. Each shape is about n nodes deep, and is compiled
+ * just within maxDepth, just past it, and far past it.
+ */
+class CompileBudgetTest {
+
+    private static final long STACK_SIZE = 1 << 20;
+    private static final int FAR_PAST = 20_000;
+
+    private static final Map<String, IntFunction<String>> SHAPES = new LinkedHashMap<>();
+    static {
+        SHAPES.put("sum", n -> "c.x" + " + c.x".repeat(n));
+        SHAPES.put("comparisons", n -> "c.x" + " < c.x".repeat(n));
+        SHAPES.put("condition", n -> "(c.x" + " && c.x".repeat(n) + ") ? 1 : 0");
+        SHAPES.put("vector sum", n -> "[c.x, c.x]" + " + c.x".repeat(n));
+        SHAPES.put("actor variable", n -> "v.2$a = [c.x, c.x]" + " + v.2$a".repeat(n));
+        SHAPES.put("temp variable", n -> "{t.a = [c.x, c.x]" + " + c.x".repeat(n) + "; return t.a;}");
+        SHAPES.put("query expansion", n -> "q.all(c.x" + ", c.x".repeat(n) + ")");
+        SHAPES.put("nested ternaries", n -> "c.x ? [1, 2] : ".repeat(64) + "[c.x, c.x]" + " + c.x".repeat(Math.max(0, n - 64)));
+    }
+
+    private static final Map<String, Consumer<MolangInstance<Object, RuntimeException>>> OPTIONS = new LinkedHashMap<>();
+    static {
+        OPTIONS.put("default", instance -> {});
+        OPTIONS.put("all", instance -> {
+            instance.branchless = true;
+            instance.fastMath = true;
+            instance.liftLiterals = true;
+            instance.fuelMetering = true;
+            instance.instrument = true;
+            instance.bufferOutputs = true;
+            instance.countActorVariableWrites = true;
+        });
+        OPTIONS.put("profileGuided", instance -> {
+            instance.profileGuided = true;
+            instance.profileWarmupCalls = 1;
+        });
+    }
+
+    @Test
+    void budgetsBoundStackUse() throws Throwable {
+        for (var options : OPTIONS.entrySet()) {
+            for (var shape : SHAPES.entrySet()) {
+                String name = shape.getKey() + " with " + options.getKey() + " options";
+                int maxDepth = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries()).maxDepth;
+                assertNull(compile(shape.getValue().apply(maxDepth - 8), options.getValue()), name + " within maxDepth");
+                assertInstanceOf(MolangCompileException.class, compile(shape.getValue().apply(maxDepth + 1), options.getValue()), name + " past maxDepth");
+                assertInstanceOf(MolangCompileException.class, compile(shape.getValue().apply(FAR_PAST), options.getValue()), name + " far past maxDepth");
+            }
+        }
+    }
+
+    @Test
+    void queryExpansionsCountAgainstMaxNodes() throws Throwable {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+        // The 41 args fit, but q.all expands into about two more nodes for each
+        String source = "q.all(c.x" + ", c.x".repeat(40) + ")";
+        instance.compile(source, List.of("x"), Map.of());
+        instance.maxNodes = 100;
+        MolangCompileException ex = assertThrows(MolangCompileException.class, () -> instance.compile(source, List.of("x"), Map.of()));
+        assertEquals(new MolangCompileException(MolangCompileException.TOO_MANY_NODES, 100, source, 0, 0).getMessage(), ex.getMessage());
+    }
+
+    // Compile, evaluate, and recompile if warm, on a fresh thread. Returns what it threw, or null.
+    private static Throwable compile(String source, Consumer<MolangInstance<Object, RuntimeException>> options) throws InterruptedException {
+        Throwable[] thrown = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries());
+                options.accept(instance);
+                CompiledMolang<Object> compiled = instance.compile(source, List.of("x"), Map.of());
+                compiled.evaluate(1);
+                instance.recompileWarmExpressions();
+                compiled.evaluate(1);
+            } catch (Throwable t) {
+                thrown[0] = t;
+            }
+        }, "compile", STACK_SIZE);
+        thread.start();
+        thread.join();
+        return thrown[0];
+    }
+
+}